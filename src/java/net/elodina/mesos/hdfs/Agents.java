@@ -0,0 +1,114 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.api.Attribute;
+import net.elodina.mesos.api.Offer;
+import net.elodina.mesos.api.Resource;
+import org.json.simple.JSONObject;
+
+import java.util.*;
+
+/*
+    Inventory of agents seen in offers: last offered resources & attributes and offer frequency.
+    Kept in memory, least recently offered agents are evicted above MAX_AGENTS.
+ */
+public class Agents {
+    static final int MAX_AGENTS = 1024;
+
+    private static final Map<String, Agent> agents = new LinkedHashMap<String, Agent>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Agent> eldest) { return size() > MAX_AGENTS; }
+    };
+
+    private Agents() {}
+
+    public static void observe(List<Offer> offers, Date now) {
+        synchronized (agents) {
+            for (Offer offer : offers) {
+                String id = id(offer);
+
+                Agent agent = agents.get(id);
+                if (agent == null) {
+                    agent = new Agent(id, now);
+                    agents.put(id, agent);
+                }
+
+                agent.observe(offer, now);
+            }
+        }
+    }
+
+    public static Agent getAgent(String id) {
+        synchronized (agents) { return agents.get(id); }
+    }
+
+    // agents, most recently offered first
+    public static List<Agent> getAgents() {
+        List<Agent> result;
+        synchronized (agents) { result = new ArrayList<>(agents.values()); }
+
+        Collections.reverse(result);
+        return result;
+    }
+
+    public static void reset() {
+        synchronized (agents) { agents.clear(); }
+    }
+
+    private static String id(Offer offer) {
+        String slaveId = offer.slaveId();
+        return slaveId != null && !slaveId.isEmpty() ? slaveId : offer.hostname();
+    }
+
+    public static class Agent {
+        public final String id;
+        public final Date firstSeen;
+
+        private volatile Offer offer;
+        private volatile Date lastSeen;
+        private volatile long offers;
+
+        Agent(String id, Date firstSeen) {
+            this.id = id;
+            this.firstSeen = firstSeen;
+        }
+
+        synchronized void observe(Offer offer, Date now) {
+            this.offer = offer;
+            lastSeen = now;
+            offers++;
+        }
+
+        // last offer of agent
+        public Offer offer() { return offer; }
+        public Date lastSeen() { return lastSeen; }
+        public long offers() { return offers; }
+
+        public String hostname() { return offer.hostname(); }
+
+        public Map<String, String> attributes() {
+            Map<String, String> attributes = new TreeMap<>();
+            for (Attribute attribute : offer.attributes()) attributes.put(attribute.name(), "" + attribute.value());
+            return attributes;
+        }
+
+        public double offersPerMinute(Date now) {
+            long ms = now.getTime() - firstSeen.getTime();
+            return ms > 0 ? offers * 60000.0 / ms : 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        public synchronized JSONObject toJson(Date now) {
+            JSONObject json = new JSONObject();
+
+            json.put("id", id);
+            json.put("hostname", hostname());
+            json.put("resources", Resource.format(offer.resources()));
+            json.put("attributes", new JSONObject(attributes()));
+
+            json.put("offers", offers);
+            json.put("offersPerMinute", Math.round(offersPerMinute(now) * 100) / 100.0);
+            json.put("lastSeen", lastSeen.getTime());
+
+            return json;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.util.Period;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.util.*;
+
+/*
+    HDFS centralized cache management: cacheadmin commands (pools & directives), requested via api.
+    Commands are taken & run by namenode executor, which reports their output back.
+    Kept in memory, last MAX_COMMANDS are retained. Ids are time based, so late reports can't match commands
+    submitted after scheduler restart. Taken commands fail when not reported within RUN_TIMEOUT or when namenode task stops.
+ */
+public class CacheAdmin {
+    static final int MAX_COMMANDS = 50;
+    static final Period RUN_TIMEOUT = new Period("10m");
+
+    public enum State {
+        PENDING,
+        RUNNING,
+        FINISHED,
+        FAILED
+    }
+
+    private static final LinkedList<Command> commands = new LinkedList<>();
+    private static long lastId;
+
+    private CacheAdmin() {}
+
+    public static synchronized Command submit(List<String> args) {
+        expire(new Date());
+
+        lastId = Math.max(System.currentTimeMillis(), lastId + 1);
+        Command command = new Command(lastId, args);
+        commands.add(command);
+
+        // evicting completed commands only
+        Iterator<Command> i = commands.iterator();
+        while (commands.size() > MAX_COMMANDS && i.hasNext())
+            if (i.next().isCompleted()) i.remove();
+
+        return command;
+    }
+
+    // pending commands, marked running
+    public static synchronized List<Command> take() {
+        expire(new Date());
+
+        List<Command> result = new ArrayList<>();
+        for (Command command : commands)
+            if (command.state == State.PENDING) {
+                command.state = State.RUNNING;
+                command.takeTime = new Date();
+                result.add(command);
+            }
+
+        return result;
+    }
+
+    public static synchronized boolean report(long id, boolean ok, String output) {
+        Command command = getCommand(id);
+        if (command == null || command.state != State.RUNNING) return false;
+
+        command.state = ok ? State.FINISHED : State.FAILED;
+        command.output = output;
+        command.finishTime = new Date();
+        return true;
+    }
+
+    // fails running commands, returns their count
+    public static synchronized int failRunning(String output) {
+        int count = 0;
+        for (Command command : commands)
+            if (command.state == State.RUNNING) {
+                command.state = State.FAILED;
+                command.output = output;
+                command.finishTime = new Date();
+                count++;
+            }
+
+        return count;
+    }
+
+    // fails running commands, not reported in time
+    static synchronized void expire(Date now) {
+        for (Command command : commands)
+            if (command.state == State.RUNNING && now.getTime() - command.takeTime.getTime() > RUN_TIMEOUT.ms()) {
+                command.state = State.FAILED;
+                command.output = "not reported by namenode executor within " + RUN_TIMEOUT;
+                command.finishTime = now;
+            }
+    }
+
+    public static synchronized Command getCommand(long id) {
+        for (Command command : commands)
+            if (command.id == id) return command;
+        return null;
+    }
+
+    // most recent first
+    public static synchronized List<Command> getCommands() {
+        expire(new Date());
+        List<Command> result = new ArrayList<>(commands);
+        Collections.reverse(result);
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static synchronized JSONArray toJson(List<Command> commands) {
+        JSONArray json = new JSONArray();
+        for (Command command : commands) json.add(command.toJson());
+        return json;
+    }
+
+    public static synchronized void reset() {
+        commands.clear();
+        lastId = 0;
+    }
+
+    public static class Command {
+        public final long id;
+        public final List<String> args;
+        public final Date time = new Date();
+
+        private State state = State.PENDING;
+        private String output;
+        private Date takeTime;
+        private Date finishTime;
+
+        Command(long id, List<String> args) {
+            this.id = id;
+            this.args = Collections.unmodifiableList(new ArrayList<>(args));
+        }
+
+        public State state() { synchronized (CacheAdmin.class) { return state; } }
+        public String output() { synchronized (CacheAdmin.class) { return output; } }
+
+        boolean isCompleted() { return state == State.FINISHED || state == State.FAILED; }
+
+        @SuppressWarnings("unchecked")
+        public JSONObject toJson() {
+            synchronized (CacheAdmin.class) {
+                JSONObject json = new JSONObject();
+
+                json.put("id", id);
+
+                JSONArray argsJson = new JSONArray();
+                argsJson.addAll(args);
+                json.put("args", argsJson);
+                json.put("state", state.name().toLowerCase());
+                if (output != null) json.put("output", output);
+
+                json.put("time", time.getTime());
+                if (finishTime != null) json.put("finishTime", finishTime.getTime());
+
+                return json;
+            }
+        }
+    }
+}
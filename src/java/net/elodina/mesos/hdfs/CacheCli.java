@@ -0,0 +1,156 @@
+package net.elodina.mesos.hdfs;
+
+import joptsimple.OptionException;
+import joptsimple.OptionParser;
+import joptsimple.OptionSet;
+import net.elodina.mesos.util.Strings;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.util.*;
+
+import static net.elodina.mesos.hdfs.Cli.Error;
+import static net.elodina.mesos.hdfs.Cli.*;
+
+public class CacheCli {
+    public static void handle(List<String> args, boolean help) {
+        if (help) {
+            handleHelp(args);
+            return;
+        }
+
+        if (args.isEmpty()) throw new Error("command required");
+        String cmd = args.remove(0);
+
+        switch (cmd) {
+            case "pool-add": case "pool-remove": case "directive-add": case "directive-remove": case "list":
+                handleCommand(cmd, args, false);
+                break;
+            case "status": handleStatus(false); break;
+            default: throw new Error("unsupported command " + cmd);
+        }
+    }
+
+    private static void handleHelp(List<String> args) {
+        String cmd = args.isEmpty() ? null : args.remove(0);
+
+        if (cmd == null) {
+            printLine("HDFS cache management commands\nUsage: cache <cmd>\n");
+            printCmds();
+
+            printLine();
+            printLine("Commands are run by namenode executor, use `cache status` to see their output.");
+            printLine("Run `help cache <cmd>` to see details of specific command");
+            return;
+        }
+
+        switch (cmd) {
+            case "pool-add": case "pool-remove": case "directive-add": case "directive-remove": case "list":
+                handleCommand(cmd, args, true);
+                break;
+            case "status": handleStatus(true); break;
+            default: throw new Error("unsupported command " + cmd);
+        }
+    }
+
+    private static void handleCommand(String cmd, List<String> args, boolean help) {
+        OptionParser parser = new OptionParser();
+        if (cmd.equals("pool-add")) parser.accepts("limit", "Max bytes cached by directives of pool. Default - unlimited.").withRequiredArg().ofType(Long.class);
+        if (cmd.equals("directive-add")) {
+            parser.accepts("pool", "Cache pool.").withRequiredArg().required().ofType(String.class);
+            parser.accepts("replication", "Cache replication. Default - 1.").withRequiredArg().ofType(Integer.class);
+        }
+
+        String usage;
+        switch (cmd) {
+            case "pool-add": usage = "Add cache pool\nUsage: cache pool-add <pool> [options]\n"; break;
+            case "pool-remove": usage = "Remove cache pool with its directives\nUsage: cache pool-remove <pool>\n"; break;
+            case "directive-add": usage = "Cache path in pool\nUsage: cache directive-add <path> [options]\n"; break;
+            case "directive-remove": usage = "Remove directives of path\nUsage: cache directive-remove <path>\n"; break;
+            default: usage = "List cache pools & directives with stats\nUsage: cache list\n";
+        }
+
+        if (help) {
+            printLine(usage);
+            if (!parser.recognizedOptions().isEmpty())
+                try { parser.printHelpOn(out); }
+                catch (IOException ignore) {}
+
+            printLine();
+            handleGenericOptions(args, true);
+            return;
+        }
+
+        String arg = null;
+        if (!cmd.equals("list")) {
+            if (args.isEmpty()) throw new Error((cmd.startsWith("pool") ? "pool" : "path") + " required");
+            arg = args.remove(0);
+        }
+
+        OptionSet options;
+        try { options = parser.parse(args.toArray(new String[args.size()])); }
+        catch (OptionException e) {
+            try { parser.printHelpOn(out); }
+            catch (IOException ignore) {}
+
+            printLine();
+            throw new Error(e.getMessage());
+        }
+
+        Map<String, String> params = new HashMap<>();
+        if (arg != null) params.put(cmd.startsWith("pool") ? "pool" : "path", arg);
+
+        if (options.has("limit")) params.put("limit", "" + options.valueOf("limit"));
+        if (options.has("pool")) params.put("pool", "" + options.valueOf("pool"));
+        if (options.has("replication")) params.put("replication", "" + options.valueOf("replication"));
+
+        JSONArray json;
+        try { json = sendRequest("/cache/" + cmd.replace("-", "/"), params); }
+        catch (IOException e) { throw new Error("" + e); }
+
+        printLine("commands requested:");
+        for (Object commandJson : json) printCommand((JSONObject) commandJson, 1);
+    }
+
+    private static void handleStatus(boolean help) {
+        if (help) {
+            printLine("Show recent cache commands with output\nUsage: cache status\n");
+            handleGenericOptions(null, true);
+            return;
+        }
+
+        JSONArray json;
+        try { json = sendRequest("/cache/status", new HashMap<String, String>()); }
+        catch (IOException e) { throw new Error("" + e); }
+
+        if (json.isEmpty()) {
+            printLine("no commands");
+            return;
+        }
+
+        for (Object commandJson : json) {
+            printCommand((JSONObject) commandJson, 0);
+            printLine();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void printCommand(JSONObject json, int indent) {
+        printLine("#" + json.get("id") + " " + Strings.join((List<String>) json.get("args"), " ") + ": " + json.get("state"), indent);
+
+        String output = (String) json.get("output");
+        if (output != null)
+            for (String line : output.split("\n")) printLine(line, indent + 1);
+    }
+
+    private static void printCmds() {
+        printLine("Commands:");
+        printLine("pool-add         - add cache pool", 1);
+        printLine("pool-remove      - remove cache pool", 1);
+        printLine("directive-add    - cache path", 1);
+        printLine("directive-remove - uncache path", 1);
+        printLine("list             - list pools & directives", 1);
+        printLine("status           - show recent commands", 1);
+    }
+}
@@ -36,6 +36,8 @@ public class Cli {
             case "help": handleHelp(args); break;
             case "scheduler": SchedulerCli.handle(args, false); break;
             case "node": NodeCli.handle(args, false); break;
+            case "mover": MoverCli.handle(args, false); break;
+            case "cache": CacheCli.handle(args, false); break;
             default: throw new Error("unsupported command " + cmd);
         }
     }
@@ -57,6 +59,8 @@ public class Cli {
                 break;
             case "scheduler": SchedulerCli.handle(args, true); break;
             case "node": NodeCli.handle(args, true); break;
+            case "mover": MoverCli.handle(args, true); break;
+            case "cache": CacheCli.handle(args, true); break;
             default: throw new Error("unsupported command " + cmd);
         }
     }
@@ -66,6 +70,8 @@ public class Cli {
         printLine("help [cmd [cmd]] - print general or command-specific help", 1);
         printLine("scheduler        - start scheduler", 1);
         printLine("node             - node management", 1);
+        printLine("mover            - HDFS mover", 1);
+        printLine("cache            - HDFS cache management", 1);
     }
 
 
@@ -0,0 +1,127 @@
+package net.elodina.mesos.hdfs;
+
+import org.json.simple.JSONObject;
+
+import java.util.*;
+
+/*
+    Rolling aggregates of offers rejected by a starting node: counts by reason category and by agent.
+    Last MAX_ENTRIES rejections are kept in ring buffer, counts are updated on add & evict,
+    so reading aggregates doesn't depend on offer rate.
+ */
+public class Declines {
+    static final int MAX_ENTRIES = 512;
+
+    private static final Map<String, Declines> declines = new HashMap<>();
+
+    private final long[] times = new long[MAX_ENTRIES];
+    private final String[] categories = new String[MAX_ENTRIES];
+    private final String[] agents = new String[MAX_ENTRIES];
+    private final String[] reasons = new String[MAX_ENTRIES];
+    private int size, next;
+    private long total;
+
+    private final Map<String, Integer> byCategory = new HashMap<>();
+    private final Map<String, Integer> byAgent = new HashMap<>();
+
+    public synchronized void add(long time, String agent, String reason) {
+        if (size == MAX_ENTRIES) {
+            dec(byCategory, categories[next]);
+            dec(byAgent, agents[next]);
+        } else
+            size++;
+
+        String category = category(reason);
+        times[next] = time;
+        categories[next] = category;
+        agents[next] = agent;
+        reasons[next] = reason;
+        next = (next + 1) % MAX_ENTRIES;
+        total++;
+
+        inc(byCategory, category);
+        inc(byAgent, agent);
+    }
+
+    public synchronized int size() { return size; }
+    public synchronized Map<String, Integer> byCategory() { return new HashMap<>(byCategory); }
+    public synchronized Map<String, Integer> byAgent() { return new HashMap<>(byAgent); }
+
+    @SuppressWarnings("unchecked")
+    public synchronized JSONObject toJson() {
+        JSONObject json = new JSONObject();
+
+        json.put("total", total);
+        json.put("window", size);
+        json.put("reasons", new JSONObject(byCategory));
+        json.put("agents", new JSONObject(byAgent));
+
+        if (size > 0) {
+            int last = (next - 1 + MAX_ENTRIES) % MAX_ENTRIES;
+            JSONObject lastJson = new JSONObject();
+            lastJson.put("time", times[last]);
+            lastJson.put("agent", agents[last]);
+            lastJson.put("reason", reasons[last]);
+            json.put("last", lastJson);
+        }
+
+        return json;
+    }
+
+    private static void inc(Map<String, Integer> counts, String key) {
+        Integer count = counts.get(key);
+        counts.put(key, count != null ? count + 1 : 1);
+    }
+
+    private static void dec(Map<String, Integer> counts, String key) {
+        int count = counts.get(key) - 1;
+        if (count == 0) counts.remove(key);
+        else counts.put(key, count);
+    }
+
+    // category of Node.matches reason: cpus, mem, disk, namenode, constraint:<name>, stickiness, preference, rate, other
+    static String category(String reason) {
+        if (reason.startsWith("cpus <")) return "cpus";
+        if (reason.startsWith("mem <")) return "mem";
+        if (reason.startsWith("disk <")) return "disk";
+        if (reason.endsWith("namenode")) return "namenode";
+        if (reason.startsWith("hostname != ")) return "stickiness";
+        if (reason.startsWith("waiting for preferred")) return "preference";
+        if (reason.startsWith("launch rate")) return "rate";
+
+        if (reason.startsWith("no ") && reason.endsWith(" attribute"))
+            return "constraint:" + reason.substring("no ".length(), reason.length() - " attribute".length());
+
+        int idx = reason.indexOf(" doesn't match ");
+        if (idx != -1) return "constraint:" + reason.substring(0, idx);
+
+        return "other";
+    }
+
+    public static void add(Node node, String agent, String reason) {
+        Declines nodeDeclines;
+        synchronized (declines) {
+            nodeDeclines = declines.get(node.id);
+            if (nodeDeclines == null) {
+                nodeDeclines = new Declines();
+                declines.put(node.id, nodeDeclines);
+            }
+        }
+
+        nodeDeclines.add(System.currentTimeMillis(), agent, reason);
+    }
+
+    // declines of node or null
+    public static Declines forNode(String id) {
+        synchronized (declines) { return declines.get(id); }
+    }
+
+    // clears declines of node, e.g. when it's launched
+    public static void clear(String id) {
+        synchronized (declines) { declines.remove(id); }
+    }
+
+    public static void reset() {
+        synchronized (declines) { declines.clear(); }
+    }
+}
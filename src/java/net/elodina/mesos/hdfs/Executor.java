@@ -12,23 +12,36 @@ import net.elodina.mesos.api.driver.ExecutorDriverV0;
 import net.elodina.mesos.api.driver.ExecutorDriverV1;
 import net.elodina.mesos.util.Base64;
 import net.elodina.mesos.util.IO;
+import net.elodina.mesos.util.Request;
 import net.elodina.mesos.util.Version;
 import org.apache.log4j.*;
+import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
 
 public class Executor implements net.elodina.mesos.api.Executor {
     public static final Logger logger = Logger.getLogger(Executor.class);
 
     public static boolean debug;
     public static String driverVersion = "v0";
+    public static String api; // scheduler api, used by namenode for topology updates
+
+    static final long API_POLL_MS = 5000;
     public static boolean driverV1() { return driverVersion.equals("v1"); }
 
     public static File hadoopDir;
@@ -36,6 +49,12 @@ public class Executor implements net.elodina.mesos.api.Executor {
 
     public static File dataDir;
     public static File javaHome;
+    public static String nativeLibDirOpt; // configured agent dir with native libs
+    public static File nativeLibDir; // null - not found, pure java implementations are used
+
+    static final String NATIVE_LIB_PREFIX = "native-lib:";
+
+    static Trace.Span initDirsSpan;
 
     public static boolean hadoop1x() { return hadoopVersion.compareTo(new Version("2.0")) < 0; }
 
@@ -99,18 +118,269 @@ public class Executor implements net.elodina.mesos.api.Executor {
         catch (ParseException e) { throw new IllegalStateException(e); }
         Node node = new Node(json);
 
+        if (node.dataDir != null) {
+            dataDir = new File(node.dataDir, node.id);
+            if (!dataDir.isDirectory() && !dataDir.mkdirs()) throw new IOException("Can't create data dir " + dataDir);
+            logger.info("Using data dir " + dataDir);
+        }
+
+        if (node.socketDir != null) {
+            File socketDir = new File(node.socketDir);
+            if (!socketDir.isDirectory() && !socketDir.mkdirs()) throw new IOException("Can't create socket dir " + socketDir);
+        }
+
+        if (node.type == Node.Type.NAMENODE && api != null) {
+            updateTopology();
+            startApiPolling();
+        }
+
         process = new HdfsProcess(node, hostname);
         process.start();
-        driver.sendStatus(new Task.Status(task.id(), Task.State.STARTING));
+
+        List<Trace.Span> spans = process.takeSpans();
+        if (initDirsSpan != null) spans.add(0, initDirsSpan);
+        driver.sendStatus(withSpans(new Task.Status(task.id(), Task.State.STARTING).message(formatNativeLib(nativeLibDir)), spans));
 
         if (process.waitForOperable())
-            driver.sendStatus(new Task.Status(task.id(), Task.State.RUNNING));
+            driver.sendStatus(withSpans(new Task.Status(task.id(), Task.State.RUNNING), process.takeSpans()));
 
         int code = process.waitFor();
         if (code == 0 || code == 143) driver.sendStatus(new Task.Status(task.id(), Task.State.FINISHED));
         else driver.sendStatus(new Task.Status(task.id(), Task.State.FAILED).message("process exited with " + code));
     }
 
+    /*
+        Polls scheduler api: keeps namenode topology map in sync with hosts of launched nodes, picks up requested
+        mover & cache commands. Commands run in own threads, so hanging one doesn't stop topology updates.
+     */
+    private void startApiPolling() {
+        Thread thread = new Thread("ApiPoller") {
+            @Override
+            public void run() {
+                try {
+                    while (!isInterrupted()) {
+                        Thread.sleep(API_POLL_MS);
+                        updateTopology();
+                        checkMover();
+                        checkCacheCommands();
+                    }
+                } catch (InterruptedException ignore) {}
+            }
+        };
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static String topologyMap;
+
+    static void updateTopology() {
+        JSONObject json;
+        try (Request request = new Request(api + "/api/topology")) {
+            Request.Response response = request.send();
+            if (response.code() != 200) throw new IOException("Error " + response.code() + ": " + response.message());
+            json = (JSONObject) new JSONParser().parse(response.text());
+        } catch (IOException | ParseException e) {
+            logger.warn("Failed to get topology: " + e);
+            return;
+        }
+
+        Map<String, String> topology = new TreeMap<>();
+        for (Object host : json.keySet()) topology.put("" + host, "" + json.get(host));
+
+        String map = HdfsProcess.formatTopologyMap(topology);
+        if (map.equals(topologyMap)) return;
+
+        try { HdfsProcess.writeTopologyMap(map); }
+        catch (IOException e) {
+            logger.warn("Failed to write topology map: " + e);
+            return;
+        }
+
+        topologyMap = map;
+        logger.info("Topology updated: " + topology);
+    }
+
+    private static long moverId; // last mover run, picked up
+
+    // runs mover, requested via scheduler api
+    static void checkMover() {
+        JSONObject json;
+        try (Request request = new Request(api + "/api/mover")) {
+            Request.Response response = request.send();
+            if (response.code() != 200) throw new IOException("Error " + response.code() + ": " + response.message());
+            json = (JSONObject) new JSONParser().parse(response.text());
+        } catch (IOException | ParseException e) {
+            logger.warn("Failed to get mover state: " + e);
+            return;
+        }
+
+        if (!"requested".equals(json.get("state"))) return;
+
+        final long id = ((Number) json.get("id")).longValue();
+        if (id == moverId) return;
+        moverId = id;
+
+        final List<String> paths = Arrays.asList(((String) json.get("paths")).split(","));
+        Thread thread = new Thread("Mover") {
+            @Override
+            public void run() { runMover(id, paths); }
+        };
+
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void runMover(long id, List<String> paths) {
+        if (hadoop1x()) {
+            reportMover(id, "failed", "mover requires hadoop 2.6+");
+            return;
+        }
+
+        logger.info("Starting mover for " + paths);
+        reportMover(id, "running", null);
+
+        List<String> cmd = new ArrayList<>(Arrays.asList(hdfs().getPath(), "mover", "-p"));
+        cmd.addAll(paths);
+
+        ProcessBuilder builder = new ProcessBuilder(cmd)
+            .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+            .redirectError(ProcessBuilder.Redirect.INHERIT);
+        builder.environment().put("JAVA_HOME", "" + javaHome);
+
+        try {
+            int code = builder.start().waitFor();
+            logger.info("Mover finished with code " + code);
+            reportMover(id, code == 0 ? "finished" : "failed", "mover exited with " + code);
+        } catch (IOException | InterruptedException e) {
+            logger.error("Mover failed", e);
+            reportMover(id, "failed", "" + e);
+        }
+    }
+
+    private static void reportMover(long id, String state, String message) {
+        Map<String, String> params = new HashMap<>();
+        params.put("id", "" + id);
+        params.put("state", state);
+        if (message != null) params.put("message", message);
+
+        try (Request request = new Request(api + "/api/mover/report")
+            .params(params)
+            .method(Request.Method.POST)
+            .contentType("application/x-www-form-urlencoded; charset=utf-8")) {
+            Request.Response response = request.send();
+            if (response.code() != 200) throw new IOException("Error " + response.code() + ": " + response.message());
+        } catch (IOException e) {
+            logger.warn("Failed to report mover state: " + e);
+        }
+    }
+
+    static final int MAX_CACHE_OUTPUT = 8192;
+    static final long CACHE_COMMAND_TIMEOUT_MS = 5 * 60 * 1000; // below scheduler run timeout, so failure is reported
+
+    private static Thread cacheThread; // running taken commands
+
+    // runs cacheadmin commands, requested via scheduler api; next commands are taken when previous are done
+    static void checkCacheCommands() {
+        if (cacheThread != null && cacheThread.isAlive()) return;
+
+        final JSONArray json;
+        try (Request request = new Request(api + "/api/cache/take")) {
+            Request.Response response = request.send();
+            if (response.code() != 200) throw new IOException("Error " + response.code() + ": " + response.message());
+            json = (JSONArray) new JSONParser().parse(response.text());
+        } catch (IOException | ParseException e) {
+            logger.warn("Failed to get cache commands: " + e);
+            return;
+        }
+
+        if (json.isEmpty()) return;
+        cacheThread = new Thread("CacheAdmin") {
+            @Override
+            public void run() { runCacheCommands(json); }
+        };
+
+        cacheThread.setDaemon(true);
+        cacheThread.start();
+    }
+
+    private static void runCacheCommands(JSONArray json) {
+        for (Object commandObj : json) {
+            JSONObject commandJson = (JSONObject) commandObj;
+            long id = ((Number) commandJson.get("id")).longValue();
+
+            List<String> cmd = new ArrayList<>(Arrays.asList(hdfs().getPath(), "cacheadmin"));
+            for (Object arg : (JSONArray) commandJson.get("args")) cmd.add("" + arg);
+
+            boolean ok = false;
+            String output;
+            if (hadoop1x()) output = "cache management requires hadoop 2.3+";
+            else
+                try {
+                    ProcessBuilder builder = new ProcessBuilder(cmd);
+                    builder.environment().put("JAVA_HOME", "" + javaHome);
+
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    Integer code = execWithTimeout(builder, CACHE_COMMAND_TIMEOUT_MS, buffer);
+                    ok = code != null && code == 0;
+
+                    output = buffer.toString("utf-8");
+                    if (output.length() > MAX_CACHE_OUTPUT) output = output.substring(0, MAX_CACHE_OUTPUT) + "...";
+                    if (code == null) output += "\ndestroyed after timeout of " + CACHE_COMMAND_TIMEOUT_MS / 1000 + "s";
+                } catch (IOException | InterruptedException e) {
+                    output = "" + e;
+                }
+
+            logger.info("Cache command " + cmd.subList(2, cmd.size()) + (ok ? " finished" : " failed") + ":\n" + output);
+            reportCacheCommand(id, ok, output);
+        }
+    }
+
+    // runs process with stderr merged into output, destroying it after timeout; null exit code - timed out
+    static Integer execWithTimeout(ProcessBuilder builder, long timeoutMs, ByteArrayOutputStream output) throws IOException, InterruptedException {
+        final Process process = builder.redirectErrorStream(true).start();
+        TimerTask destroy = new TimerTask() {
+            @Override
+            public void run() { process.destroy(); }
+        };
+
+        Timer timer = new Timer("ProcessTimeout", true);
+        timer.schedule(destroy, timeoutMs);
+        try {
+            IO.copyAndClose(process.getInputStream(), output);
+            int code = process.waitFor();
+            return destroy.cancel() ? code : null;
+        } finally {
+            timer.cancel();
+        }
+    }
+
+    private static void reportCacheCommand(long id, boolean ok, String output) {
+        Map<String, String> params = new HashMap<>();
+        params.put("id", "" + id);
+        params.put("ok", "" + ok);
+        params.put("output", output);
+
+        try (Request request = new Request(api + "/api/cache/report")
+            .params(params)
+            .method(Request.Method.POST)
+            .contentType("application/x-www-form-urlencoded; charset=utf-8")) {
+            Request.Response response = request.send();
+            if (response.code() != 200) throw new IOException("Error " + response.code() + ": " + response.message());
+        } catch (IOException e) {
+            logger.warn("Failed to report cache command: " + e);
+        }
+    }
+
+    // passes trace spans to scheduler in status data
+    private static Task.Status withSpans(Task.Status status, List<Trace.Span> spans) throws IOException {
+        if (spans.isEmpty()) return status;
+
+        String data = Trace.formatSpans(spans);
+        if (driverV1()) data = Base64.encode(data);
+        return status.data(data.getBytes("utf-8"));
+    }
+
     @Override
     public void killTask(String id) {
         logger.info("[killTask] " + id);
@@ -145,6 +415,8 @@ public class Executor implements net.elodina.mesos.api.Executor {
     }
 
     static void initDirs() {
+        long start = System.currentTimeMillis();
+
         String hadoopMask = "hadoop-.*";
         hadoopDir = IO.findDir(new File("."), hadoopMask);
         if (hadoopDir == null) throw new IllegalStateException(hadoopMask + " not found in current dir");
@@ -156,7 +428,34 @@ public class Executor implements net.elodina.mesos.api.Executor {
         dataDir = new File(new File("."), "data");
         javaHome = findJavaHome();
 
-        logger.info("Resolved dirs:\nhadoopDir=" + hadoopDir + "\ndataDir=" + dataDir + "\njavaHome=" + javaHome);
+        List<File> nativeLibDirs = new ArrayList<>();
+        if (nativeLibDirOpt != null) nativeLibDirs.add(new File(nativeLibDirOpt));
+        nativeLibDirs.addAll(Arrays.asList(new File(hadoopDir, "lib/native"), new File(hadoopDir, "lib/native/Linux-amd64-64")));
+        nativeLibDir = findNativeLibDir(nativeLibDirs);
+
+        logger.info("Resolved dirs:\nhadoopDir=" + hadoopDir + "\ndataDir=" + dataDir + "\njavaHome=" + javaHome + "\nnativeLibDir=" + nativeLibDir);
+        initDirsSpan = new Trace.Span("executor.init-dirs", start);
+    }
+
+    // first dir with libhadoop.so*; configured dir goes first (overrides distribution libs), 1.x keeps them per platform
+    static File findNativeLibDir(List<File> dirs) {
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files == null) continue;
+
+            for (File file : files)
+                if (file.isFile() && file.getName().startsWith("libhadoop.so")) return dir;
+        }
+
+        return null;
+    }
+
+    // native lib status, sent with TASK_STARTING
+    static String formatNativeLib(File dir) { return NATIVE_LIB_PREFIX + (dir != null ? dir.getPath() : ""); }
+
+    static String parseNativeLib(String message) {
+        if (message == null || !message.startsWith(NATIVE_LIB_PREFIX)) return null;
+        return message.substring(NATIVE_LIB_PREFIX.length());
     }
 
     static File findJavaHome() {
@@ -209,6 +508,8 @@ public class Executor implements net.elodina.mesos.api.Executor {
         OptionParser parser = new OptionParser();
         parser.accepts("debug", "Enable debug logging. Default - false").withRequiredArg().ofType(Boolean.class);
         parser.accepts("driver", "Mesos driver version (v0, v1). Default - " + driverVersion).withRequiredArg().ofType(String.class);
+        parser.accepts("api", "Scheduler api url, to get topology updates from. Default - none").withRequiredArg().ofType(String.class);
+        parser.accepts("native-lib-dir", "Agent dir with native hadoop libs. Default - none").withRequiredArg().ofType(String.class);
 
         boolean help = args.length > 0 && args[0].equals("help");
         if (help) {
@@ -240,6 +541,8 @@ public class Executor implements net.elodina.mesos.api.Executor {
 
         if (debug != null) Executor.debug = debug;
         if (driver != null) Executor.driverVersion = driver;
+        Executor.api = (String) options.valueOf("api");
+        Executor.nativeLibDirOpt = (String) options.valueOf("native-lib-dir");
     }
 
     static void initLogging() {
@@ -8,16 +8,32 @@ import org.apache.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class HdfsProcess {
     private static Logger logger = Logger.getLogger(HdfsProcess.class);
 
+    static final int BLOCK_REPORT_DELAY_STEP = 5; // s per datanode launched before
+    static final int MAX_BLOCK_REPORT_DELAY = 600;
+
+    static final long EXECUTOR_MEM = 64; // Mb, executor jvm sharing task memory
+
     private Node node;
     private String hostname;
 
     private Process process;
+    private List<Trace.Span> spans = new ArrayList<>();
 
     public HdfsProcess(Node node, String hostname) {
         this.node = node;
@@ -25,12 +41,31 @@ public class HdfsProcess {
     }
 
     public void start() throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
         createCoreSiteXml();
+        spans.add(new Trace.Span("executor.core-site", start));
+
+        start = System.currentTimeMillis();
         createHdfsSiteXml();
         configureLogs();
-        if (node.type == Node.Type.NAMENODE) formatNameNodeIfRequired();
+        spans.add(new Trace.Span("executor.hdfs-site", start));
 
+        if (node.type == Node.Type.NAMENODE) {
+            start = System.currentTimeMillis();
+            boolean formatted = formatNameNodeIfRequired();
+            spans.add(new Trace.Span("executor.format", start).note(formatted ? "formatted" : "already formatted"));
+        }
+
+        start = System.currentTimeMillis();
         process = startProcess();
+        spans.add(new Trace.Span("executor.spawn", start));
+    }
+
+    // spans recorded since last call
+    public synchronized List<Trace.Span> takeSpans() {
+        List<Trace.Span> result = spans;
+        spans = new ArrayList<>();
+        return result;
     }
 
     public int waitFor() throws InterruptedException {
@@ -46,9 +81,12 @@ public class HdfsProcess {
         if (process == null) throw new IllegalStateException("!started");
 
         logger.info("Waiting for process IPC port ready ...");
+        long start = System.currentTimeMillis();
+
         while (!isProcessStopped()) {
             if (Net.isPortOpen(hostname, node.reservation.ports.get(Node.Port.IPC))) {
                 logger.info("Process IPC port is ready");
+                addSpan(new Trace.Span("executor.wait-operable", start));
                 return true;
             }
 
@@ -60,9 +98,12 @@ public class HdfsProcess {
         }
 
         logger.info("Process IPC port is not ready: process stopped");
+        addSpan(new Trace.Span("executor.wait-operable", start).note("process stopped"));
         return false;
     }
 
+    private synchronized void addSpan(Trace.Span span) { spans.add(span); }
+
     public void stop() {
         logger.info("Stopping process");
         process.destroy();
@@ -77,6 +118,12 @@ public class HdfsProcess {
         Map<String, String> props = new HashMap<>();
         props.put("hadoop.tmp.dir", getTmpDir().getAbsolutePath());
         props.put("fs.default.name", node.runtime.fsUri);
+
+        if (node.type == Node.Type.NAMENODE) {
+            File script = createTopologyScript();
+            props.put(Executor.hadoop1x() ? "topology.script.file.name" : "net.topology.script.file.name", script.getAbsolutePath());
+        }
+
         props.putAll(node.coreSiteOpts);
 
         File file = new File(Executor.hadoopConfDir(), "core-site.xml");
@@ -92,15 +139,182 @@ public class HdfsProcess {
             props.put("dfs.datanode.http.address", hostname + ":" + node.reservation.ports.get(Node.Port.HTTP));
             props.put("dfs.datanode.address", hostname + ":" + node.reservation.ports.get(Node.Port.DATA));
             props.put("dfs.datanode.ipc.address", hostname + ":" + node.reservation.ports.get(Node.Port.IPC));
+
+            if (node.cacheMem > 0) props.put("dfs.datanode.max.locked.memory", "" + node.cacheMem * 1024 * 1024);
+
+            int delay = blockReportDelay(node.runtime.launchOrder);
+            if (delay > 0) props.put("dfs.blockreport.initialDelay", "" + delay);
+
+            // node is pinned to host by volumes, falling back to sandbox would silently lose its data
+            Map<File, String> volumes = volumeDirs(node.volumes, node.id);
+            if (!node.volumes.isEmpty() && volumes.isEmpty())
+                throw new IllegalStateException("none of volumes " + Strings.join(node.volumes, ",") + " found on " + hostname);
+
+            if (!volumes.isEmpty()) {
+                props.put(Executor.hadoop1x() ? "dfs.data.dir" : "dfs.datanode.data.dir", formatDataDirs(volumes, Executor.hadoop1x()));
+                props.put("dfs.datanode.failed.volumes.tolerated", "" + volumes.size() / 4);
+            }
+
+            // domain sockets are supported since 2.x
+            if (node.socketDir != null && !Executor.hadoop1x()) props.putAll(shortCircuitProps(node.domainSocketPath(), Executor.nativeLibDir));
+
+            long reserved = volumes.isEmpty() ? duReserved(getTmpDir(), node.reservation.disk) : duReserved(volumes.keySet(), node.reservation.disk);
+            if (reserved > 0) props.put("dfs.datanode.du.reserved", "" + reserved);
         }
 
+        for (String name : node.runtime.tuning.keySet())
+            props.put(tuningProp(name, Executor.hadoop1x()), node.runtime.tuning.get(name));
+
         props.putAll(node.hdfsSiteOpts);
 
         File file = new File(Executor.hadoopConfDir(), "hdfs-site.xml");
         writePropsXml(file, props);
     }
 
+    // datanode domain socket requires libhadoop, without it datanode fails to start, so reads are left remote
+    static Map<String, String> shortCircuitProps(String domainSocketPath, File nativeLibDir) {
+        if (nativeLibDir != null) return shortCircuitProps(domainSocketPath);
+
+        logger.warn("Native hadoop libs not found, short-circuit local reads are disabled");
+        return new LinkedHashMap<>();
+    }
+
+    // short-circuit local reads: same props are used by datanode & co-located clients
+    static Map<String, String> shortCircuitProps(String domainSocketPath) {
+        Map<String, String> props = new LinkedHashMap<>();
+        props.put("dfs.client.read.shortcircuit", "true");
+        props.put("dfs.domain.socket.path", domainSocketPath);
+        return props;
+    }
+
+    // tuning props are named as of 2.x
+    static String tuningProp(String name, boolean hadoop1x) {
+        if (hadoop1x && name.equals("dfs.datanode.max.transfer.threads")) return "dfs.datanode.max.xcievers";
+        return name;
+    }
+
+    /*
+        Initial block report delay (s) of datanode by its launch order: hadoop sends first report at random
+        time within the delay, so datanodes launched together don't report all at once.
+     */
+    static int blockReportDelay(int launchOrder) {
+        return Math.min(launchOrder * BLOCK_REPORT_DELAY_STEP, MAX_BLOCK_REPORT_DELAY);
+    }
+
+    // <volume>/<id> dirs with storage types (null - default), patterns with * in last path element are expanded to existing dirs
+    static Map<File, String> volumeDirs(List<String> volumes, String id) {
+        Map<File, String> dirs = new LinkedHashMap<>();
+
+        for (String volume : volumes) {
+            String storageType = Node.volumeStorageType(volume);
+            File file = new File(Node.volumePath(volume));
+
+            List<File> matched = new ArrayList<>();
+            if (file.getName().contains("*")) {
+                String regex = ("\\Q" + file.getName() + "\\E").replace("*", "\\E.*\\Q");
+                File[] files = file.getParentFile() != null ? file.getParentFile().listFiles() : null;
+                if (files != null)
+                    for (File f : files)
+                        if (f.isDirectory() && f.getName().matches(regex)) matched.add(f);
+                Collections.sort(matched);
+            } else if (file.isDirectory())
+                matched.add(file);
+
+            if (matched.isEmpty()) logger.warn("Volume " + volume + " not found");
+            for (File f : matched) dirs.put(new File(f, id), storageType);
+        }
+
+        return dirs;
+    }
+
+    // /data,[SSD]file:///ssd, storage types are supported since hadoop 2.6
+    static String formatDataDirs(Map<File, String> dirs, boolean hadoop1x) {
+        List<String> result = new ArrayList<>();
+
+        for (File dir : dirs.keySet()) {
+            String storageType = dirs.get(dir);
+            if (storageType == null || hadoop1x) result.add(dir.getAbsolutePath());
+            else result.add("[" + storageType + "]file://" + dir.getAbsolutePath());
+        }
+
+        return Strings.join(result, ",");
+    }
+
+    // bytes of data volume left for non-dfs use, so datanode capacity is limited by reserved disk (Mb)
+    static long duReserved(File dir, long disk) {
+        if (disk <= 0) return 0;
+
+        File volume = dir.getAbsoluteFile();
+        while (volume != null && !volume.exists()) volume = volume.getParentFile();
+        if (volume == null) return 0;
+
+        return Math.max(0, volume.getTotalSpace() - disk * 1024 * 1024);
+    }
+
+    /*
+        du.reserved is a single per-volume value: reserved disk is split evenly and the value is derived from
+        the smallest volume, so every volume keeps its share; larger volumes get more capacity than the share.
+     */
+    static long duReserved(Collection<File> dirs, long disk) {
+        if (disk <= 0 || dirs.isEmpty()) return 0;
+
+        long reserved = Long.MAX_VALUE;
+        for (File dir : dirs) reserved = Math.min(reserved, duReserved(dir, disk / dirs.size()));
+        return reserved;
+    }
+
+    // resolves hosts & ips, passed by namenode, to racks from topology map
+    private File createTopologyScript() throws IOException {
+        File file = new File(Executor.hadoopConfDir(), "topology.sh");
+        File map = topologyMapFile();
+        if (!map.exists()) IO.writeFile(map, "");
+
+        String content =
+            "#!/bin/sh\n" +
+            "while [ $# -gt 0 ]; do\n" +
+            "  rack=$(awk -v host=\"$1\" '$1 == host { print $2; exit }' \"" + map.getAbsolutePath() + "\")\n" +
+            "  printf '%s ' \"${rack:-/default-rack}\"\n" +
+            "  shift\n" +
+            "done\n";
+
+        IO.writeFile(file, content);
+        if (!file.setExecutable(true)) throw new IOException("Can't make " + file + " executable");
+        return file;
+    }
+
+    static File topologyMapFile() { return new File(Executor.hadoopConfDir(), "topology.map"); }
+
+    // "<host> <rack>" lines, hosts are also resolved to ips, as namenode resolves datanodes by ip
+    static String formatTopologyMap(Map<String, String> topology) {
+        StringBuilder s = new StringBuilder();
+
+        for (String host : topology.keySet()) {
+            String rack = topology.get(host);
+            s.append(host).append(" ").append(rack).append("\n");
+
+            try {
+                for (InetAddress address : InetAddress.getAllByName(host))
+                    if (!address.getHostAddress().equals(host)) s.append(address.getHostAddress()).append(" ").append(rack).append("\n");
+            } catch (UnknownHostException ignore) {}
+        }
+
+        return "" + s;
+    }
+
+    // map is replaced atomically: topology script never reads partial file
+    static void writeTopologyMap(String content) throws IOException {
+        File file = topologyMapFile();
+        File tmp = new File(file.getPath() + ".tmp");
+
+        IO.writeFile(tmp, content);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
     private void writePropsXml(File file, Map<String, String> props) throws IOException {
+        IO.writeFile(file, formatPropsXml(props));
+    }
+
+    static String formatPropsXml(Map<String, String> props) {
         String content = "<configuration>\n";
 
         for (String name : props.keySet()) {
@@ -111,7 +325,7 @@ public class HdfsProcess {
         }
 
         content += "</configuration>";
-        IO.writeFile(file, content);
+        return content;
     }
 
     private void configureLogs() throws IOException {
@@ -137,11 +351,12 @@ public class HdfsProcess {
         return dir != null ? new File(dir) : Executor.dataDir;
     }
 
-    private void formatNameNodeIfRequired() throws IOException, InterruptedException {
+    // returns true if formatted
+    private boolean formatNameNodeIfRequired() throws IOException, InterruptedException {
         boolean formatted = new File(getNameNodeDir(), "current").isDirectory();
         if (formatted) {
             logger.info("Namenode is already formatted");
-            return;
+            return false;
         }
 
         logger.info("Formatting namenode");
@@ -154,6 +369,64 @@ public class HdfsProcess {
 
         int code = builder.start().waitFor();
         if (code != 0) throw new IllegalStateException("Failed to format namenode: process exited with " + code);
+        return true;
+    }
+
+    /*
+        Hadoop jvm opts, sized from reserved mem (Mb). Cache mem is locked off-heap, executor & jvm native memory
+        are left as headroom, the rest goes to heap. GC: low-pause G1 for namenode, throughput parallel for datanode.
+        Options of hadoopJvmOpts override derived ones of the same kind.
+     */
+    static String jvmOpts(Node node, int javaVersion) {
+        String custom = node.hadoopJvmOpts != null ? node.hadoopJvmOpts : "";
+        List<String> opts = new ArrayList<>();
+
+        long mem = Math.max(0, node.reservation.mem - node.cacheMem);
+        long metaspace = Math.min(Math.max(64, mem / 16), 256);
+        long direct = Math.min(Math.max(64, mem / 16), 512);
+        long nativeMem = Math.max(32, mem / 10);
+        long heap = Math.max(32, mem - EXECUTOR_MEM - metaspace - direct - nativeMem);
+
+        if (!custom.contains("-Xmx")) opts.add("-Xmx" + heap + "m");
+        if (!custom.contains("-Xms")) opts.add("-Xms" + heap + "m");
+
+        if (javaVersion >= 8) { if (!custom.contains("MaxMetaspaceSize")) opts.add("-XX:MaxMetaspaceSize=" + metaspace + "m"); }
+        else if (!custom.contains("MaxPermSize")) opts.add("-XX:MaxPermSize=" + metaspace + "m");
+
+        if (!custom.contains("MaxDirectMemorySize")) opts.add("-XX:MaxDirectMemorySize=" + direct + "m");
+
+        if (!custom.matches(".*-XX:\\+Use\\w*GC.*"))
+            if (node.type == Node.Type.NAMENODE) opts.addAll(Arrays.asList("-XX:+UseG1GC", "-XX:MaxGCPauseMillis=200"));
+            else opts.add("-XX:+UseParallelGC");
+
+        if (!custom.isEmpty()) opts.add(custom);
+        return Strings.join(opts, " ");
+    }
+
+    /*
+        Raises locked memory limit (Kb) before exec of "$0" "$@", capping it at hard limit.
+        Cap or failure is reported in task stderr, as datanode then refuses to start with cache enabled.
+     */
+    static String memlockScript(long limit) {
+        return "limit=" + limit + "; hard=$(ulimit -H -l); " +
+            "if [ \"$hard\" != unlimited ] && [ \"$hard\" -lt $limit ]; then " +
+            "echo \"memlock hard limit ${hard}Kb is below cache-mem ${limit}Kb, datanode may refuse to start\" >&2; limit=$hard; fi; " +
+            "ulimit -l $limit || echo \"failed to raise memlock limit to ${limit}Kb\" >&2; " +
+            "exec \"$0\" \"$@\"";
+    }
+
+    static String libraryPath(File nativeLibDir, String current) {
+        String path = nativeLibDir.getAbsolutePath();
+        return current != null && !current.isEmpty() ? path + ":" + current : path;
+    }
+
+    // major version of executor jvm: 1.7 -> 7, 11.0.2 -> 11
+    static int javaVersion() {
+        String version = System.getProperty("java.specification.version", "1.7");
+        if (version.startsWith("1.")) version = version.substring(2);
+
+        try { return Integer.parseInt(version.split("\\.")[0]); }
+        catch (NumberFormatException e) { return 7; }
     }
 
     private Process startProcess() throws IOException {
@@ -164,15 +437,30 @@ public class HdfsProcess {
             default: throw new IllegalStateException("unsupported node type " + node.type);
         }
 
-        ProcessBuilder builder = new ProcessBuilder(Executor.hdfs().getPath(), cmd)
+        List<String> command = new ArrayList<>(Arrays.asList(Executor.hdfs().getPath(), cmd));
+
+        // datanode refuses to start, if locked memory limit is below max.locked.memory
+        if (node.type == Node.Type.DATANODE && node.cacheMem > 0)
+            command.addAll(0, Arrays.asList("sh", "-c", memlockScript(node.cacheMem * 1024)));
+
+        ProcessBuilder builder = new ProcessBuilder(command)
             .redirectOutput(ProcessBuilder.Redirect.INHERIT)
             .redirectError(ProcessBuilder.Redirect.INHERIT);
 
         Map<String, String> env = builder.environment();
         env.put("JAVA_HOME", "" + Executor.javaHome);
-        if (node.hadoopJvmOpts != null) env.put("HADOOP_OPTS", node.hadoopJvmOpts);
-
-        logger.info("Starting process '" + Strings.join(builder.command(), " ") + "'");
+        env.put("HADOOP_OPTS", jvmOpts(node, javaVersion()));
+
+        // native crc32c checksums & io; without them hadoop falls back to pure java
+        File nativeLibDir = Executor.nativeLibDir;
+        if (nativeLibDir != null) {
+            env.put("HADOOP_OPTS", "-Djava.library.path=" + nativeLibDir.getAbsolutePath() + " " + env.get("HADOOP_OPTS"));
+            env.put("JAVA_LIBRARY_PATH", nativeLibDir.getAbsolutePath()); // hadoop scripts append it to HADOOP_OPTS
+            env.put("LD_LIBRARY_PATH", libraryPath(nativeLibDir, env.get("LD_LIBRARY_PATH")));
+        } else
+            logger.warn("Native hadoop libs not found, using pure java implementations");
+
+        logger.info("Starting process '" + Strings.join(builder.command(), " ") + "' with HADOOP_OPTS=" + env.get("HADOOP_OPTS"));
         return builder.start();
     }
 }
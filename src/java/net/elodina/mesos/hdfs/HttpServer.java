@@ -1,10 +1,13 @@
 package net.elodina.mesos.hdfs;
 
+import net.elodina.mesos.api.Offer;
 import net.elodina.mesos.util.Constraint;
 import net.elodina.mesos.util.IO;
 import net.elodina.mesos.util.Period;
 import net.elodina.mesos.util.Strings;
+import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.server.Server;
@@ -14,26 +17,38 @@ import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.*;
 import java.util.*;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class HttpServer {
     private static final Logger logger = Logger.getLogger(HttpServer.class);
 
     private Server server;
 
+    // downloads wait for a slot only on dedicated connector; on shared one they are rejected right away,
+    // so waiting downloads can't hold api threads
+    Period downloadQueueTimeout = new Period("5m");
+    static final int DOWNLOAD_RETRY_AFTER = 10; // s
+    private Semaphore downloads;
+    private Map<String, Throttle> throttles = new HashMap<>(); // active clients only
+    private ServerConnector downloadConnector;
+
     public void start() throws Exception {
         if (server != null) throw new IllegalStateException("started");
         Scheduler.Config config = Scheduler.$.config;
 
+        downloads = new Semaphore(config.maxDownloads, true);
+        throttles.clear();
+
         QueuedThreadPool threadPool = new QueuedThreadPool(Runtime.getRuntime().availableProcessors() * 16);
         threadPool.setName("Jetty");
 
@@ -48,11 +63,26 @@ public class HttpServer {
 
         server.setHandler(handler);
         server.addConnector(connector);
+
+        // artifact downloads get own connector & pool, so they can't starve api
+        downloadConnector = null;
+        if (config.downloadApi != null) {
+            QueuedThreadPool downloadPool = new QueuedThreadPool(config.maxDownloads + 8, 2);
+            downloadPool.setName("JettyDownload");
+
+            downloadConnector = new ServerConnector(server, downloadPool, null, null, 1, 1, new HttpConnectionFactory());
+            downloadConnector.setPort(config.downloadApiPort());
+            downloadConnector.setIdleTimeout(60 * 1000);
+            server.addConnector(downloadConnector);
+        }
+
         server.start();
 
-        logger.info("started on port " + connector.getLocalPort());
+        logger.info("started on port " + connector.getLocalPort() + (downloadConnector != null ? ", downloads on port " + downloadConnector.getLocalPort() : ""));
     }
 
+    public boolean isStarted() { return server != null; }
+
     public void stop() throws Exception {
         if (server == null) throw new IllegalStateException("!started");
 
@@ -63,16 +93,20 @@ public class HttpServer {
         logger.info("stopped");
     }
 
+    // polled by namenode executor every few seconds, logged at debug level
+    static final Set<String> POLLED_URIS = new HashSet<>(Arrays.asList("/api/topology", "/api/mover", "/api/cache/take"));
+
     private class Servlet extends HttpServlet {
         protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException { doGet(request, response); }
 
         protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
             String url = request.getRequestURL() + (request.getQueryString() != null ? "?" + request.getQueryString() : "");
-            logger.info("handling - " + url);
+            Level level = POLLED_URIS.contains(request.getRequestURI()) ? Level.DEBUG : Level.INFO;
+            logger.log(level, "handling - " + url);
 
             try {
                 handle(request, response);
-                logger.info("finished handling");
+                logger.log(level, "finished handling");
             } catch (HttpError e) {
                 response.sendError(e.getCode(), e.getMessage());
             } catch (Exception e) {
@@ -85,11 +119,22 @@ public class HttpServer {
             String uri = request.getRequestURI();
             Scheduler.Config config = Scheduler.$.config;
 
+            // download connector serves artifacts only, keeping api off its small pool
+            boolean download = uri.startsWith("/jar/") || uri.startsWith("/hadoop/") || uri.startsWith("/jre/");
+            if (!download && isDownloadPort(request)) throw new HttpError(404, "not found");
+
             if (uri.equals("/health")) handleHealth(response);
+            else if (uri.equals("/metrics")) handleMetrics(response);
             else if (uri.startsWith("/api/node")) handleNodeApi(request, response);
-            else if (uri.startsWith("/jar/")) downloadFile(config.jar, response);
-            else if (uri.startsWith("/hadoop/")) downloadFile(config.hadoop, response);
-            else if (config.jre != null && uri.startsWith("/jre/")) downloadFile(config.jre, response);
+            else if (uri.equals("/api/trace")) handleTrace(request, response);
+            else if (uri.equals("/api/agents")) handleAgents(request, response);
+            else if (uri.equals("/api/topology")) handleTopology(request, response);
+            else if (uri.startsWith("/api/mover")) handleMoverApi(request, response);
+            else if (uri.startsWith("/api/cache")) handleCacheApi(request, response);
+            else if (uri.equals("/api/client/hdfs-site.xml")) handleClientConfig(response);
+            else if (uri.startsWith("/jar/")) downloadFile(uri, config.jar, config.jarHash, request, response);
+            else if (uri.startsWith("/hadoop/")) downloadFile(uri, config.hadoop, config.hadoopHash, request, response);
+            else if (config.jre != null && uri.startsWith("/jre/")) downloadFile(uri, config.jre, config.jreHash, request, response);
             else throw new HttpError(404, "not found");
         }
 
@@ -98,6 +143,11 @@ public class HttpServer {
             response.getWriter().println("ok");
         }
 
+        private void handleMetrics(HttpServletResponse response) throws IOException {
+            response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+            Metrics.render(response.getWriter());
+        }
+
         private void handleNodeApi(HttpServletRequest request, HttpServletResponse response) throws IOException {
             String uri = request.getRequestURI();
             uri = uri.substring("/api/node".length());
@@ -110,10 +160,127 @@ public class HttpServer {
                 case "/add": case "/update": handleNodeAddUpdate(request, response, uri.equals("/add")); break;
                 case "/start": case "/stop": handleNodeStartStop(request, response, uri.equals("/start")); break;
                 case "/remove": handleNodeRemove(request, response); break;
+                case "/batch": handleNodeBatch(request, response); break;
+                case "/lifecycle": response.getWriter().println("" + Metrics.lifecycleJson()); break;
+                case "/pending": handleNodePending(request, response); break;
+                case "/explain": handleNodeExplain(request, response); break;
                 default: throw new HttpError(404, "unsupported method " + uri);
             }
         }
 
+        @SuppressWarnings("unchecked")
+        private void handleNodePending(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            String expr = "*";
+            if (request.getParameter("node") != null) expr = request.getParameter("node");
+
+            List<String> ids;
+            try { ids = Nodes.expandExpr(expr); }
+            catch (IllegalArgumentException e) { throw new HttpError(400, "invalid node"); }
+
+            Date now = new Date();
+            JSONArray nodesJson = new JSONArray();
+
+            // in start queue order
+            Set<String> idSet = new HashSet<>(ids);
+            List<Node> queue = Scheduler.startQueue();
+            for (int i = 0; i < queue.size(); i++) {
+                Node node = queue.get(i);
+                if (!idSet.contains(node.id)) continue;
+
+                JSONObject nodeJson = new JSONObject();
+                nodeJson.put("id", node.id);
+                nodeJson.put("type", node.type.name().toLowerCase());
+                nodeJson.put("position", i);
+                if (node.startTime != null) nodeJson.put("waiting", node.queueTime(now));
+                if (node.failover.isWaitingDelay(now)) nodeJson.put("failoverDelay", true);
+
+                Declines declines = Declines.forNode(node.id);
+                nodeJson.put("declines", declines != null ? declines.toJson() : new Declines().toJson());
+
+                nodesJson.add(nodeJson);
+            }
+
+            response.getWriter().println("" + nodesJson);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void handleNodeExplain(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            String expr = "*";
+            if (request.getParameter("node") != null) expr = request.getParameter("node");
+
+            List<String> ids;
+            try { ids = Nodes.expandExpr(expr); }
+            catch (IllegalArgumentException e) { throw new HttpError(400, "invalid node"); }
+
+            Date now = new Date();
+            List<Agents.Agent> agents = Agents.getAgents();
+            JSONArray nodesJson = new JSONArray();
+
+            for (Node node : Nodes.getNodes(ids)) {
+                if (node.isExternal()) continue;
+                Map<String, Collection<String>> otherAttributes = Scheduler.$.otherAttributes(node);
+                PlacementStrategy strategy = Scheduler.$.config.placement(node.type);
+
+                List<String> reasons = new ArrayList<>();
+                List<Offer> candidates = new ArrayList<>();
+                for (Agents.Agent agent : agents) {
+                    String reason = node.matches(agent.offer(), otherAttributes, now);
+                    if (reason == null) candidates.add(agent.offer());
+                    reasons.add(reason);
+                }
+
+                // best agent is chosen as by scheduler: preferences first, then strategy
+                PlacementStrategy.Context context = candidates.isEmpty() ? null : new PlacementStrategy.Context(node, candidates);
+                JSONObject best = null;
+                double bestPreference = 0, bestScore = 0;
+
+                JSONArray agentsJson = new JSONArray();
+                for (int i = 0; i < agents.size(); i++) {
+                    Agents.Agent agent = agents.get(i);
+                    String reason = reasons.get(i);
+
+                    JSONObject agentJson = new JSONObject();
+                    agentJson.put("id", agent.id);
+                    agentJson.put("hostname", agent.hostname());
+                    agentJson.put("verdict", reason != null ? reason : "ok");
+
+                    double preference = node.preferenceScore(agent.offer(), otherAttributes);
+                    if (!node.preferences.isEmpty()) agentJson.put("preference", preference);
+
+                    if (reason == null) {
+                        double score = strategy.score(node, agent.offer(), context);
+                        agentJson.put("score", score);
+
+                        if (best == null || preference > bestPreference || preference == bestPreference && score > bestScore) {
+                            best = agentJson;
+                            bestPreference = preference;
+                            bestScore = score;
+                        }
+                    }
+
+                    agentsJson.add(agentJson);
+                }
+
+                JSONObject nodeJson = new JSONObject();
+                nodeJson.put("id", node.id);
+                nodeJson.put("matching", candidates.size());
+                nodeJson.put("placement", "" + strategy);
+                if (best != null) nodeJson.put("best", best.get("id"));
+
+                // launch could be still held back, as by scheduler
+                LaunchLimiter limiter = Scheduler.$.config.launchLimiter(node.type);
+                if (best != null && bestPreference < node.maxPreferenceScore() && node.isWaitingPreferred(now))
+                    nodeJson.put("blocked", "waiting for preferred offer");
+                else if (best != null && limiter != null && limiter.waitTime(now.getTime()) > 0)
+                    nodeJson.put("blocked", "launch rate " + limiter + " exceeded");
+
+                nodeJson.put("agents", agentsJson);
+                nodesJson.add(nodeJson);
+            }
+
+            response.getWriter().println("" + nodesJson);
+        }
+
         private void handleNodeList(HttpServletRequest request, HttpServletResponse response) throws IOException {
             String expr = "*";
             if (request.getParameter("node") != null) expr = request.getParameter("node");
@@ -130,17 +297,22 @@ public class HttpServer {
             response.getWriter().println("" + nodesJson);
         }
 
-        @SuppressWarnings("ConstantConditions")
         private void handleNodeAddUpdate(HttpServletRequest request, HttpServletResponse response, boolean add) throws IOException {
-            String expr = request.getParameter("node");
-            if (expr == null || expr.isEmpty()) throw new HttpError(400, "node required");
+            Map<String, String> params = params(request);
+            List<String> ids = expandNodeExpr(params.get("node"));
 
-            List<String> ids;
-            try { ids = Nodes.expandExpr(expr); }
-            catch (IllegalArgumentException e) { throw new HttpError(400, "invalid node"); }
+            List<Node> nodes = addUpdateNodes(NodeView.NODES, ids, params, add);
+            Nodes.save();
+
+            @SuppressWarnings("unchecked") List<JSONObject> nodesJson = new JSONArray();
+            for (Node node : nodes) nodesJson.add(node.toJson());
+            response.getWriter().println("" + nodesJson);
+        }
 
+        @SuppressWarnings("ConstantConditions")
+        private List<Node> addUpdateNodes(NodeView view, List<String> ids, Map<String, String> params, boolean add) {
             for (String id : ids) {
-                Node node = Nodes.getNode(id);
+                Node node = view.get(id);
                 if (add && node != null) throw new HttpError(400, "duplicate node");
                 if (!add && node == null) throw new HttpError(400, "node not found");
                 if (!add && node.state != Node.State.IDLE) throw new HttpError(400, "node not idle");
@@ -148,82 +320,137 @@ public class HttpServer {
 
             Node.Type type = null;
             if (add) {
-                if (request.getParameter("type") == null) throw new HttpError(400, "type required");
+                if (params.get("type") == null) throw new HttpError(400, "type required");
 
-                try { type = Node.Type.valueOf(request.getParameter("type").toUpperCase()); }
+                try { type = Node.Type.valueOf(params.get("type").toUpperCase()); }
                 catch (IllegalArgumentException e) { throw new HttpError(400, "invalid type"); }
 
 
             }
 
             Double cpus = null;
-            if (request.getParameter("cpus") != null)
-                try { cpus = Double.valueOf(request.getParameter("cpus")); }
+            if (params.get("cpus") != null)
+                try { cpus = Double.valueOf(params.get("cpus")); }
                 catch (IllegalArgumentException e) { throw new HttpError(400, "invalid cpus"); }
 
             Long mem = null;
-            if (request.getParameter("mem") != null)
-                try { mem = Long.valueOf(request.getParameter("mem")); }
+            if (params.get("mem") != null)
+                try { mem = Long.valueOf(params.get("mem")); }
                 catch (IllegalArgumentException e) { throw new HttpError(400, "invalid mem"); }
 
+            Long disk = null;
+            if (params.get("disk") != null)
+                try { disk = Long.valueOf(params.get("disk")); }
+                catch (IllegalArgumentException e) { throw new HttpError(400, "invalid disk"); }
+
+            Long cacheMem = null;
+            if (params.get("cacheMem") != null)
+                try { cacheMem = Long.valueOf(params.get("cacheMem")); }
+                catch (IllegalArgumentException e) { throw new HttpError(400, "invalid cacheMem"); }
+
             Map<String, Constraint> constraints = null;
-            if (request.getParameter("constraints") != null) {
+            if (params.get("constraints") != null) {
                 constraints = new LinkedHashMap<>();
-                Map<String, String> m = Strings.parseMap(request.getParameter("constraints"));
+                Map<String, String> m = Strings.parseMap(params.get("constraints"));
                 for (String name : m.keySet())
                     try { constraints.put(name, new Constraint(m.get(name))); }
                     catch (IllegalArgumentException e) { throw new HttpError(400, "invalid constraint: " + e.getMessage()); }
             }
 
-            String executorJvmOpts = request.getParameter("executorJvmOpts");
-            String hadoopJvmOpts = request.getParameter("hadoopJvmOpts");
+            Map<String, Node.Preference> preferences = null;
+            if (params.get("preferences") != null) {
+                preferences = new LinkedHashMap<>();
+                Map<String, String> m = Strings.parseMap(params.get("preferences"));
+                for (String name : m.keySet())
+                    try { preferences.put(name, new Node.Preference(m.get(name))); }
+                    catch (IllegalArgumentException e) { throw new HttpError(400, "invalid preference: " + e.getMessage()); }
+            }
 
-            String coreSiteOpts = request.getParameter("coreSiteOpts");
+            Period preferenceWait = null;
+            if (params.get("preferenceWait") != null)
+                try { preferenceWait = new Period(params.get("preferenceWait")); }
+                catch (IllegalArgumentException e) { throw new HttpError(400, "invalid preferenceWait"); }
+
+            String executorJvmOpts = params.get("executorJvmOpts");
+            String hadoopJvmOpts = params.get("hadoopJvmOpts");
+
+            String coreSiteOpts = params.get("coreSiteOpts");
             try { Strings.parseMap(coreSiteOpts, false); }
             catch (IllegalArgumentException e) { throw new HttpError(400, "invalid coreSiteOpts"); }
 
-            String hdfsSiteOpts = request.getParameter("hdfsSiteOpts");
+            String hdfsSiteOpts = params.get("hdfsSiteOpts");
             try { Strings.parseMap(hdfsSiteOpts, false); }
             catch (IllegalArgumentException e) { throw new HttpError(400, "invalid hdfsSiteOpts"); }
 
-            String externalFsUri = request.getParameter("externalFsUri");
+            String externalFsUri = params.get("externalFsUri");
+
+            String dataDir = params.get("dataDir");
+            if (dataDir != null && !dataDir.equals("") && !dataDir.startsWith("/"))
+                throw new HttpError(400, "invalid dataDir: absolute path required");
+
+            Period dataWait = null;
+            if (params.get("dataWait") != null && !params.get("dataWait").equals(""))
+                try { dataWait = new Period(params.get("dataWait")); }
+                catch (IllegalArgumentException e) { throw new HttpError(400, "invalid dataWait"); }
+
+            List<String> volumes = null;
+            if (params.get("volumes") != null) {
+                volumes = new ArrayList<>();
+                for (String volume : params.get("volumes").split(",")) {
+                    volume = volume.trim();
+                    if (volume.isEmpty()) continue;
+                    try { Node.volumeStorageType(volume); }
+                    catch (IllegalArgumentException e) { throw new HttpError(400, "invalid volumes: " + e.getMessage()); }
+
+                    if (!Node.volumePath(volume).startsWith("/")) throw new HttpError(400, "invalid volumes: absolute path required");
+                    volumes.add(volume);
+                }
+            }
+
+            String socketDir = params.get("socketDir");
+            if (socketDir != null && !socketDir.equals("") && !socketDir.startsWith("/"))
+                throw new HttpError(400, "invalid socketDir: absolute path required");
 
             Period failoverDelay = null;
-            if (request.getParameter("failoverDelay") != null)
-                try { failoverDelay = new Period(request.getParameter("failoverDelay")); }
+            if (params.get("failoverDelay") != null)
+                try { failoverDelay = new Period(params.get("failoverDelay")); }
                 catch (IllegalArgumentException e) { throw new HttpError(400, "invalid failoverDelay"); }
 
             Period failoverMaxDelay = null;
-            if (request.getParameter("failoverMaxDelay") != null)
-                try { failoverMaxDelay = new Period(request.getParameter("failoverMaxDelay")); }
+            if (params.get("failoverMaxDelay") != null)
+                try { failoverMaxDelay = new Period(params.get("failoverMaxDelay")); }
                 catch (IllegalArgumentException e) { throw new HttpError(400, "invalid failoverMaxDelay"); }
 
-            String failoverMaxTries = request.getParameter("failoverMaxTries");
+            String failoverMaxTries = params.get("failoverMaxTries");
             if (failoverMaxTries != null && !failoverMaxTries.equals("") && !Strings.isInteger(failoverMaxTries))
                 throw new HttpError(400, "invalid failoverMaxTries");
 
             String stickinessHostname = null;
-            if (request.getParameter("stickinessHostname") != null)
-                try { stickinessHostname = new String(request.getParameter("stickinessHostname")); }
+            if (params.get("stickinessHostname") != null)
+                try { stickinessHostname = new String(params.get("stickinessHostname")); }
                 catch (IllegalArgumentException e) { throw new HttpError(400, "invalid stickinessHostname"); }
 
             Boolean stickinessPersist = null;
-            if (request.getParameter("stickinessPersist") != null)
-                try { stickinessPersist =  Boolean.valueOf(request.getParameter("stickinessPersist")); }
+            if (params.get("stickinessPersist") != null)
+                try { stickinessPersist =  Boolean.valueOf(params.get("stickinessPersist")); }
                 catch (IllegalArgumentException e) { throw new HttpError(400, "invalid stickinessPersist"); }
 
             List<Node> nodes = new ArrayList<>();
             for (String id : ids) {
                 Node node;
-                if (add) node = Nodes.addNode(new Node(id, type));
-                else node = Nodes.getNode(id);
+                if (add) node = view.add(new Node(id, type));
+                else node = view.get(id);
 
                 nodes.add(node);
 
                 if (cpus != null) node.cpus = cpus;
                 if (mem != null) node.mem = mem;
+                if (disk != null) node.disk = disk;
+                if (cacheMem != null && node.type == Node.Type.DATANODE) node.cacheMem = cacheMem;
 
                 if (constraints != null) node.constraints = constraints;
+                if (preferences != null) node.preferences = preferences;
+                if (preferenceWait != null) node.preferenceWait = preferenceWait;
 
                 if (executorJvmOpts != null) node.executorJvmOpts = executorJvmOpts.equals("") ? null : executorJvmOpts;
                 if (hadoopJvmOpts != null) node.hadoopJvmOpts = hadoopJvmOpts.equals("") ? null : hadoopJvmOpts;
@@ -233,6 +460,10 @@ public class HttpServer {
 
                 if (externalFsUri != null && node.type == Node.Type.NAMENODE)
                     node.externalFsUri = externalFsUri.equals("") ? null : externalFsUri;
+                if (dataDir != null) node.dataDir = dataDir.equals("") ? null : dataDir;
+                if (params.get("dataWait") != null) node.dataWait = dataWait;
+                if (volumes != null && node.type == Node.Type.DATANODE) node.volumes = volumes;
+                if (socketDir != null && node.type == Node.Type.DATANODE) node.socketDir = socketDir.equals("") ? null : socketDir;
 
                 if (failoverDelay != null) node.failover.delay = failoverDelay;
                 if (failoverMaxDelay != null) node.failover.maxDelay = failoverMaxDelay;
@@ -240,29 +471,14 @@ public class HttpServer {
                 if (stickinessHostname != null) node.stickiness.hostname = stickinessHostname.equals("") ? null : stickinessHostname;
                 if (stickinessPersist != null) node.stickiness.persist = stickinessPersist;
             }
-            Nodes.save();
 
-            @SuppressWarnings("unchecked") List<JSONObject> nodesJson = new JSONArray();
-            for (Node node : nodes) nodesJson.add(node.toJson());
-            response.getWriter().println("" + nodesJson);
+            return nodes;
         }
 
         @SuppressWarnings("unchecked")
         private void handleNodeStartStop(HttpServletRequest request, HttpServletResponse response, boolean start) throws IOException {
-            String expr = request.getParameter("node");
-            if (expr == null || expr.isEmpty()) throw new HttpError(400, "node required");
-
-            List<String> ids;
-            try { ids = Nodes.expandExpr(expr); }
-            catch (IllegalArgumentException e) { throw new HttpError(400, "invalid node"); }
-
-            for (String id : ids) {
-                Node node = Nodes.getNode(id);
-                if (node == null) throw new HttpError(400, "node not found");
-                if (start && node.state != Node.State.IDLE) throw new HttpError(400, "node not idle");
-                if (!start && node.state == Node.State.IDLE) throw new HttpError(400, "node idle");
-                if (node.isExternal()) throw new HttpError(400, "node external");
-            }
+            List<String> ids = expandNodeExpr(request.getParameter("node"));
+            validateStartStop(NodeView.NODES, ids, start);
 
             Period timeout = new Period("2m");
             if (request.getParameter("timeout") != null)
@@ -275,9 +491,8 @@ public class HttpServer {
             List<Node> nodes = Nodes.getNodes(ids);
 
             for (Node node : nodes) {
-                node.failover.resetFailures();
-                node.state = start ? Node.State.STARTING : Node.State.STOPPING;
-                if (!start && node.runtime != null) node.runtime.killSent = false;
+                scheduleStartStop(node, start);
+                if (start) traceStart(node);
 
                 Nodes.save();
                 if (!wait) continue;
@@ -297,37 +512,494 @@ public class HttpServer {
             response.getWriter().write("" + json);
         }
 
-        private void handleNodeRemove(HttpServletRequest request, HttpServletResponse response) throws IOException {
-            String expr = request.getParameter("node");
-            if (expr == null || expr.isEmpty()) throw new HttpError(400, "node required");
+        private void validateStartStop(NodeView view, List<String> ids, boolean start) {
+            for (String id : ids) {
+                Node node = view.get(id);
+                if (node == null) throw new HttpError(400, "node not found");
+                if (start && node.state != Node.State.IDLE) throw new HttpError(400, "node not idle");
+                if (!start && node.state == Node.State.IDLE) throw new HttpError(400, "node idle");
+                if (node.isExternal()) throw new HttpError(400, "node external");
+            }
+        }
+
+        private void scheduleStartStop(Node node, boolean start) {
+            node.failover.resetFailures();
+            node.state = start ? Node.State.STARTING : Node.State.STOPPING;
+            if (start) node.startTime = new Date();
+            if (!start && node.runtime != null) node.runtime.killSent = false;
+        }
+
+        private void traceStart(Node node) {
+            Trace trace = Trace.begin(node, "api");
+            trace.add(new Trace.Span("api.start", trace.start.getTime(), 0, null));
+        }
+
+        @SuppressWarnings("unchecked")
+        private void handleTrace(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            request.setAttribute("jsonResponse", true);
+            response.setContentType("application/json; charset=utf-8");
+
+            String expr = "*";
+            if (request.getParameter("node") != null) expr = request.getParameter("node");
 
             List<String> ids;
             try { ids = Nodes.expandExpr(expr); }
             catch (IllegalArgumentException e) { throw new HttpError(400, "invalid node"); }
 
+            JSONObject json = new JSONObject();
+            for (Node node : Nodes.getNodes(ids)) {
+                JSONArray tracesJson = new JSONArray();
+                for (Trace trace : Trace.forNode(node.id)) tracesJson.add(trace.toJson());
+                json.put(node.id, tracesJson);
+            }
+
+            response.getWriter().println("" + json);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void handleAgents(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            request.setAttribute("jsonResponse", true);
+            response.setContentType("application/json; charset=utf-8");
+
+            Date now = new Date();
+            JSONArray agentsJson = new JSONArray();
+            for (Agents.Agent agent : Agents.getAgents()) agentsJson.add(agent.toJson(now));
+
+            response.getWriter().println("" + agentsJson);
+        }
+
+        private void handleTopology(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            request.setAttribute("jsonResponse", true);
+            response.setContentType("application/json; charset=utf-8");
+            response.getWriter().println("" + new JSONObject(Scheduler.$.topology()));
+        }
+
+        private void handleClientConfig(HttpServletResponse response) throws IOException {
+            Map<String, String> props;
+            try { props = Nodes.clientProps(); }
+            catch (IllegalStateException e) { throw new HttpError(400, e.getMessage()); }
+
+            response.setContentType("application/xml; charset=utf-8");
+            response.getWriter().println(HdfsProcess.formatPropsXml(props));
+        }
+
+        private void handleMoverApi(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            String uri = request.getRequestURI();
+            uri = uri.substring("/api/mover".length());
+
+            request.setAttribute("jsonResponse", true);
+            response.setContentType("application/json; charset=utf-8");
+
+            switch (uri) {
+                case "": case "/status": break;
+                case "/start": handleMoverStart(request); break;
+                case "/report": handleMoverReport(request); break;
+                case "/reset":
+                    if (!Mover.fail("reset")) throw new HttpError(400, "mover is not active");
+                    break;
+                default: throw new HttpError(404, "unsupported method " + uri);
+            }
+
+            response.getWriter().println("" + Mover.toJson());
+        }
+
+        private void checkNamenodeRunning() {
+            List<Node> nns = Nodes.getNodes(Node.Type.NAMENODE);
+            Node nn = nns.isEmpty() ? null : nns.get(0);
+            if (nn == null || nn.isExternal() || nn.state != Node.State.RUNNING) throw new HttpError(400, "no running namenode");
+        }
+
+        private void handleMoverStart(HttpServletRequest request) {
+            checkNamenodeRunning();
+
+            List<String> paths = new ArrayList<>();
+            String pathsParam = request.getParameter("paths");
+            if (pathsParam == null || pathsParam.isEmpty()) pathsParam = "/";
+
+            for (String path : pathsParam.split(",")) {
+                path = path.trim();
+                if (!path.startsWith("/")) throw new HttpError(400, "invalid paths: absolute path required");
+                paths.add(path);
+            }
+
+            try { Mover.request(paths); }
+            catch (IllegalStateException e) { throw new HttpError(400, e.getMessage()); }
+        }
+
+        private void handleMoverReport(HttpServletRequest request) {
+            long id;
+            try { id = Long.parseLong(request.getParameter("id")); }
+            catch (NumberFormatException e) { throw new HttpError(400, "invalid id"); }
+
+            Mover.State state;
+            try { state = Mover.State.valueOf(("" + request.getParameter("state")).toUpperCase()); }
+            catch (IllegalArgumentException e) { throw new HttpError(400, "invalid state"); }
+
+            if (!Mover.report(id, state, request.getParameter("message")))
+                throw new HttpError(400, "unexpected report");
+        }
+
+        private void handleCacheApi(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            String uri = request.getRequestURI();
+            uri = uri.substring("/api/cache".length());
+
+            request.setAttribute("jsonResponse", true);
+            response.setContentType("application/json; charset=utf-8");
+
+            List<CacheAdmin.Command> commands = new ArrayList<>();
+            switch (uri) {
+                case "/pool/add": case "/pool/remove": case "/directive/add": case "/directive/remove": case "/list":
+                    checkNamenodeRunning();
+                    for (List<String> args : cacheArgs(uri, request)) commands.add(CacheAdmin.submit(args));
+                    break;
+                case "/status":
+                    commands = CacheAdmin.getCommands();
+                    break;
+                case "/take":
+                    commands = CacheAdmin.take();
+                    break;
+                case "/report":
+                    handleCacheReport(request);
+                    break;
+                default: throw new HttpError(404, "unsupported method " + uri);
+            }
+
+            response.getWriter().println("" + CacheAdmin.toJson(commands));
+        }
+
+        // cacheadmin args of commands for api method
+        private List<List<String>> cacheArgs(String uri, HttpServletRequest request) {
+            String pool = request.getParameter("pool");
+            if (uri.startsWith("/pool") || uri.equals("/directive/add")) {
+                if (pool == null || pool.isEmpty()) throw new HttpError(400, "pool required");
+                if (!pool.matches("[\\w.-]+")) throw new HttpError(400, "invalid pool");
+            }
+
+            String path = request.getParameter("path");
+            if (uri.startsWith("/directive")) {
+                if (path == null || path.isEmpty()) throw new HttpError(400, "path required");
+                if (!path.startsWith("/")) throw new HttpError(400, "invalid path");
+            }
+
+            List<List<String>> result = new ArrayList<>();
+            switch (uri) {
+                case "/pool/add":
+                    List<String> args = new ArrayList<>(Arrays.asList("-addPool", pool));
+                    String limit = request.getParameter("limit");
+                    if (limit != null) {
+                        if (!Strings.isInteger(limit)) throw new HttpError(400, "invalid limit");
+                        args.addAll(Arrays.asList("-limit", limit));
+                    }
+                    result.add(args);
+                    break;
+                case "/pool/remove":
+                    result.add(Arrays.asList("-removePool", pool));
+                    break;
+                case "/directive/add":
+                    args = new ArrayList<>(Arrays.asList("-addDirective", "-path", path, "-pool", pool));
+                    String replication = request.getParameter("replication");
+                    if (replication != null) {
+                        if (!Strings.isInteger(replication) || Integer.parseInt(replication) <= 0) throw new HttpError(400, "invalid replication");
+                        args.addAll(Arrays.asList("-replication", replication));
+                    }
+                    result.add(args);
+                    break;
+                case "/directive/remove":
+                    result.add(Arrays.asList("-removeDirectives", "-path", path));
+                    break;
+                case "/list":
+                    result.add(Arrays.asList("-listPools", "-stats"));
+                    result.add(Arrays.asList("-listDirectives", "-stats"));
+                    break;
+            }
+
+            return result;
+        }
+
+        private void handleCacheReport(HttpServletRequest request) {
+            long id;
+            try { id = Long.parseLong(request.getParameter("id")); }
+            catch (NumberFormatException e) { throw new HttpError(400, "invalid id"); }
+
+            boolean ok = Boolean.parseBoolean(request.getParameter("ok"));
+            if (!CacheAdmin.report(id, ok, request.getParameter("output")))
+                throw new HttpError(400, "unexpected report");
+        }
+
+        private void handleNodeRemove(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            List<String> ids = expandNodeExpr(request.getParameter("node"));
+
+            removeNodes(NodeView.NODES, ids);
+            Nodes.save();
+
+            @SuppressWarnings("unchecked") List<String> json = new JSONArray();
+            json.addAll(ids);
+            response.getWriter().write("" + json);
+        }
+
+        private void removeNodes(NodeView view, List<String> ids) {
             if (ids.isEmpty()) throw new HttpError(400, "node not found");
 
             for (String id : ids) {
-                Node node = Nodes.getNode(id);
+                Node node = view.get(id);
                 if (node == null) throw new HttpError(400, "node not found");
                 if (node.state != Node.State.IDLE) throw new HttpError(400, "node not idle");
             }
 
-            for (Node node : Nodes.getNodes(ids))
+            for (String id : ids)
+                view.remove(view.get(id));
+        }
+
+        /*
+            Applies list of operations atomically and saves state once.
+            ops param - json array: [{"op":"add", "node":"dn0..9", "type":"datanode", "cpus":"1"}, {"op":"start", "node":"dn*"}, ...]
+            Op params are the same as of corresponding node method. Node expressions are expanded
+            against nodes existing before the batch. All ops are first applied to copies of the nodes,
+            so an invalid op fails the whole batch without changing anything. Validation & apply hold
+            scheduler lock, so node states, validated on copies, can't change before apply.
+         */
+        @SuppressWarnings("unchecked")
+        private void handleNodeBatch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            String opsParam = request.getParameter("ops");
+            if (opsParam == null || opsParam.isEmpty()) throw new HttpError(400, "ops required");
+
+            List<Map<String, String>> ops = new ArrayList<>();
+            try {
+                for (Object opJson : (JSONArray) new JSONParser().parse(opsParam)) {
+                    JSONObject json = (JSONObject) opJson;
+                    Map<String, String> op = new HashMap<>();
+                    for (Object name : json.keySet())
+                        op.put("" + name, json.get(name) != null ? "" + json.get(name) : null);
+                    ops.add(op);
+                }
+            } catch (ParseException | ClassCastException e) {
+                throw new HttpError(400, "invalid ops");
+            }
+
+            List<List<String>> opIds = new ArrayList<>();
+            for (int i = 0; i < ops.size(); i++) {
+                try { opIds.add(expandNodeExpr(ops.get(i).get("node"))); }
+                catch (HttpError e) { throw new HttpError(e.getCode(), "op " + i + ": " + e.getMessage()); }
+            }
+
+            JSONArray results = new JSONArray();
+            synchronized (Scheduler.$) {
+                // validate on copies
+                NodeView copies = new CopyNodeView();
+                for (int i = 0; i < ops.size(); i++) {
+                    try { applyOp(copies, ops.get(i), opIds.get(i)); }
+                    catch (HttpError e) { throw new HttpError(e.getCode(), "op " + i + ": " + e.getMessage()); }
+                }
+
+                // apply, applied ops are saved even if unexpected error stops the batch
+                try {
+                    for (int i = 0; i < ops.size(); i++) {
+                        try { applyOp(NodeView.NODES, ops.get(i), opIds.get(i)); }
+                        catch (HttpError e) { throw new HttpError(e.getCode(), "op " + i + ": " + e.getMessage() + ", " + i + " ops before applied"); }
+
+                        JSONArray idsJson = new JSONArray();
+                        idsJson.addAll(opIds.get(i));
+
+                        JSONObject result = new JSONObject();
+                        result.put("op", ops.get(i).get("op"));
+                        result.put("nodes", idsJson);
+                        results.add(result);
+                    }
+                } finally {
+                    Nodes.save();
+                }
+            }
+
+            response.getWriter().println("" + results);
+        }
+
+        private void applyOp(NodeView view, Map<String, String> op, List<String> ids) {
+            String name = op.get("op");
+            if (name == null) throw new HttpError(400, "op required");
+
+            switch (name) {
+                case "add": case "update":
+                    addUpdateNodes(view, ids, op, name.equals("add"));
+                    break;
+                case "start": case "stop":
+                    boolean start = name.equals("start");
+                    validateStartStop(view, ids, start);
+                    for (String id : ids) {
+                        scheduleStartStop(view.get(id), start);
+                        if (start && view == NodeView.NODES) traceStart(view.get(id));
+                    }
+                    break;
+                case "remove":
+                    removeNodes(view, ids);
+                    break;
+                default: throw new HttpError(400, "unsupported op " + name);
+            }
+        }
+
+        private List<String> expandNodeExpr(String expr) {
+            if (expr == null || expr.isEmpty()) throw new HttpError(400, "node required");
+
+            try { return Nodes.expandExpr(expr); }
+            catch (IllegalArgumentException e) { throw new HttpError(400, "invalid node"); }
+        }
+
+        private Map<String, String> params(HttpServletRequest request) {
+            Map<String, String> params = new HashMap<>();
+            for (Enumeration<String> names = request.getParameterNames(); names.hasMoreElements(); ) {
+                String name = names.nextElement();
+                params.put(name, request.getParameter(name));
+            }
+            return params;
+        }
+
+        private void downloadFile(String uri, File file, String hash, HttpServletRequest request, HttpServletResponse response) throws IOException {
+            // /jar/<name> or /jar/<hash>/<name>
+            String path = uri.substring(uri.indexOf("/", 1) + 1);
+            int slashIdx = path.indexOf("/");
+
+            if (slashIdx != -1) {
+                String requestedHash = path.substring(0, slashIdx);
+                if (!requestedHash.equals(hash)) throw new HttpError(404, "not found");
+                response.setHeader("Cache-Control", "public, max-age=31536000, immutable");
+                response.setHeader("ETag", "\"" + hash + "\"");
+            }
+
+            boolean dedicated = isDownloadPort(request);
+            try {
+                boolean acquired = dedicated ? downloads.tryAcquire(downloadQueueTimeout.ms(), TimeUnit.MILLISECONDS) : downloads.tryAcquire();
+                if (!acquired) {
+                    response.setHeader("Retry-After", "" + DOWNLOAD_RETRY_AFTER);
+                    throw new HttpError(503, "too many downloads");
+                }
+            } catch (InterruptedException e) {
+                throw new HttpError(503, "interrupted");
+            }
+
+            try {
+                response.setContentType("application/zip");
+                response.setHeader("Content-Length", "" + file.length());
+                response.setHeader("Content-Disposition", "attachment; filename=\"" + file.getName() + "\"");
+
+                int rate = Scheduler.$.config.downloadRate;
+                if (rate <= 0) IO.copyAndClose(new FileInputStream(file), response.getOutputStream());
+                else {
+                    String client = request.getRemoteAddr();
+                    try { copyThrottled(new FileInputStream(file), response.getOutputStream(), acquireThrottle(client, rate)); }
+                    finally { releaseThrottle(client); }
+                }
+            } finally {
+                downloads.release();
+            }
+        }
+
+        private boolean isDownloadPort(HttpServletRequest request) {
+            return downloadConnector != null && request.getLocalPort() == downloadConnector.getLocalPort();
+        }
+
+        private void copyThrottled(InputStream in, OutputStream out, Throttle throttle) throws IOException {
+            try {
+                byte[] buffer = new byte[16 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    try { throttle.acquire(read); }
+                    catch (InterruptedException e) { throw new InterruptedIOException(); }
+                    out.write(buffer, 0, read);
+                }
+                out.flush();
+            } finally {
+                IO.closeSilently(in);
+                IO.closeSilently(out);
+            }
+        }
+    }
+
+    synchronized Throttle acquireThrottle(String client, int rate) {
+        Throttle throttle = throttles.get(client);
+        if (throttle == null || throttle.rate != rate) {
+            throttle = new Throttle(rate);
+            throttles.put(client, throttle);
+        }
+
+        throttle.downloads++;
+        return throttle;
+    }
+
+    // evicts throttle of client without active downloads
+    synchronized void releaseThrottle(String client) {
+        Throttle throttle = throttles.get(client);
+        if (throttle != null && --throttle.downloads <= 0) throttles.remove(client);
+    }
+
+    synchronized int throttles() { return throttles.size(); }
+
+    // Paces bytes written to single client to rate Kb/s. Shared by all downloads of the client.
+    static class Throttle {
+        final int rate;
+        private long nextFree = System.nanoTime();
+        private int downloads; // active downloads of client, guarded by HttpServer
+
+        Throttle(int rate) { this.rate = rate; }
+
+        void acquire(int bytes) throws InterruptedException {
+            long delay = reserve(bytes, System.nanoTime());
+            if (delay > 0) TimeUnit.NANOSECONDS.sleep(delay);
+        }
+
+        // returns nanos to wait before sending bytes
+        synchronized long reserve(int bytes, long now) {
+            long cost = bytes * 1000000000L / (rate * 1024L);
+            long start = Math.max(nextFree, now);
+            nextFree = start + cost;
+            return start - now;
+        }
+    }
+
+    // Node access used by node ops: live nodes or isolated copies of them
+    interface NodeView {
+        Node get(String id);
+        Node add(Node node);
+        void remove(Node node);
+
+        NodeView NODES = new NodeView() {
+            public Node get(String id) { return Nodes.getNode(id); }
+            public Node add(Node node) { return Nodes.addNode(node); }
+            public void remove(Node node) {
                 Nodes.removeNode(node);
-            Nodes.save();
+                Trace.remove(node.id);
+                Declines.clear(node.id);
+            }
+        };
+    }
 
-            @SuppressWarnings("unchecked") List<String> json = new JSONArray();
-            json.addAll(ids);
-            response.getWriter().write("" + json);
+    static class CopyNodeView implements NodeView {
+        private Map<String, Node> nodes = new HashMap<>();
+        private Set<String> copied = new HashSet<>();
+
+        CopyNodeView() {
+            for (Node node : Nodes.getNodes()) nodes.put(node.id, node);
         }
 
-        private void downloadFile(File file, HttpServletResponse response) throws IOException {
-            response.setContentType("application/zip");
-            response.setHeader("Content-Length", "" + file.length());
-            response.setHeader("Content-Disposition", "attachment; filename=\"" + file.getName() + "\"");
-            IO.copyAndClose(new FileInputStream(file), response.getOutputStream());
+        public Node get(String id) {
+            Node node = nodes.get(id);
+            if (node == null) return null;
+
+            // copy on first access
+            if (copied.add(id)) {
+                node = new Node(node.toJson());
+                nodes.put(id, node);
+            }
+
+            return node;
         }
+
+        public Node add(Node node) {
+            if (nodes.get(node.id) != null) throw new IllegalArgumentException("duplicate node");
+            nodes.put(node.id, node);
+            copied.add(node.id);
+            return node;
+        }
+
+        public void remove(Node node) { nodes.put(node.id, null); }
     }
 
     private class ErrorHandler extends org.eclipse.jetty.server.handler.ErrorHandler {
@@ -0,0 +1,54 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.util.Period;
+
+/*
+    Token bucket, limiting task launches of a node type: <count>/<period>, e.g. 10/1m.
+    Bucket holds up to count tokens (burst), refilled continuously at count per period.
+    Keeps namenode from being flooded by registrations & block reports of all pending datanodes at once.
+ */
+public class LaunchLimiter {
+    private final int count;
+    private final Period period;
+
+    private double tokens;
+    private long refillTime = -1;
+
+    public LaunchLimiter(String s) {
+        int idx = s.indexOf("/");
+        if (idx == -1) throw new IllegalArgumentException("invalid launch rate " + s);
+
+        try { count = Integer.parseInt(s.substring(0, idx)); }
+        catch (NumberFormatException e) { throw new IllegalArgumentException("invalid launch count " + s.substring(0, idx)); }
+        if (count <= 0) throw new IllegalArgumentException("invalid launch count " + count);
+
+        period = new Period(s.substring(idx + 1));
+        if (period.ms() <= 0) throw new IllegalArgumentException("invalid launch period " + period);
+
+        tokens = count;
+    }
+
+    // takes token, if available
+    public synchronized boolean acquire(long now) {
+        refill(now);
+        if (tokens < 1) return false;
+
+        tokens--;
+        return true;
+    }
+
+    // ms till next token
+    public synchronized long waitTime(long now) {
+        refill(now);
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) * period.ms() / count);
+    }
+
+    private void refill(long now) {
+        if (refillTime != -1 && now > refillTime)
+            tokens = Math.min(count, tokens + (double) (now - refillTime) * count / period.ms());
+
+        refillTime = Math.max(refillTime, now);
+    }
+
+    public String toString() { return count + "/" + period; }
+}
@@ -0,0 +1,312 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.api.Task;
+
+import org.json.simple.JSONObject;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+    Scheduler metrics, rendered in prometheus text format by /metrics.
+    Counters & histograms are preallocated atomics: updates are lock-free and don't allocate.
+ */
+public class Metrics {
+    private static final List<Metric> metrics = new ArrayList<>();
+
+    public static final Counter offersReceived = register(new Counter("hdfs_mesos_offers_received_total", "Offers received"));
+    public static final Counter offersAccepted = register(new Counter("hdfs_mesos_offers_accepted_total", "Offers accepted"));
+    public static final Counters<DeclineReason> offersDeclined = register(new Counters<>("hdfs_mesos_offers_declined_total", "Offers declined", "reason", DeclineReason.values()));
+    public static final Histogram offersProcessing = register(new Histogram("hdfs_mesos_offers_processing_seconds", "Time of processing offers batch"));
+
+    public static final Counters<Task.State> statusUpdates = register(new Counters<>("hdfs_mesos_status_updates_total", "Task status updates", "state", Task.State.values()));
+
+    public static final Histogram storageSave = register(new Histogram("hdfs_mesos_storage_save_seconds", "Time of saving cluster state"));
+    public static final Counter storageSaveBytes = register(new Counter("hdfs_mesos_storage_save_bytes_total", "Bytes of cluster state saved"));
+
+    public static final Counter reconcileRounds = register(new Counter("hdfs_mesos_reconcile_rounds_total", "Task reconciliation rounds"));
+
+    // node start phases latencies by [type][phase]
+    private static final Latencies[][] lifecycle = new Latencies[Node.Type.values().length][Phase.values().length];
+    static {
+        for (Node.Type type : Node.Type.values())
+            for (Phase phase : Phase.values())
+                lifecycle[type.ordinal()][phase.ordinal()] = register(new Latencies("hdfs_mesos_node_start_seconds", "Node start phases latency", "type=\"" + label(type) + "\",phase=\"" + label(phase) + "\""));
+    }
+
+    public static Latencies lifecycle(Node.Type type, Phase phase) { return lifecycle[type.ordinal()][phase.ordinal()]; }
+
+    static {
+        register(new Gauge("hdfs_mesos_nodes", "Nodes by state", "state") {
+            long[] values() {
+                long[] counts = new long[Node.State.values().length];
+                for (Node node : Nodes.getNodes()) counts[node.state.ordinal()]++;
+                return counts;
+            }
+
+            String label(int i) { return Metrics.label(Node.State.values()[i]); }
+        });
+    }
+
+    private Metrics() {}
+
+    private static synchronized <T extends Metric> T register(T metric) {
+        metrics.add(metric);
+        return metric;
+    }
+
+    public static synchronized void render(PrintWriter writer) {
+        String name = null;
+        for (Metric metric : metrics) {
+            if (!metric.name.equals(name)) {
+                writer.println("# HELP " + metric.name + " " + metric.help);
+                writer.println("# TYPE " + metric.name + " " + metric.type());
+                name = metric.name;
+            }
+            metric.render(writer);
+        }
+        writer.flush();
+    }
+
+    public static synchronized void reset() {
+        for (Metric metric : metrics) metric.reset();
+    }
+
+    static String label(Enum<?> value) { return value.name().toLowerCase(); }
+
+    private static String format(double value) {
+        if (value == (long) value) return "" + (long) value;
+        return "" + value;
+    }
+
+    public enum DeclineReason {
+        RECONCILING,
+        NOTHING_TO_START,
+        NO_MATCH
+    }
+
+    public enum Phase {
+        OFFER_WAIT, // start requested -> task launched
+        LAUNCH,     // task launched -> TASK_STARTING: fetch, executor init, namenode format
+        OPERABLE,   // TASK_STARTING -> TASK_RUNNING: waiting for IPC port
+        TOTAL       // start requested -> TASK_RUNNING
+    }
+
+    abstract static class Metric {
+        final String name;
+        final String help;
+
+        Metric(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        abstract String type();
+        abstract void render(PrintWriter writer);
+        void reset() {}
+    }
+
+    public static class Counter extends Metric {
+        private final AtomicLong value = new AtomicLong();
+
+        Counter(String name, String help) { super(name, help); }
+
+        public void inc() { value.incrementAndGet(); }
+        public void add(long delta) { value.addAndGet(delta); }
+        public long get() { return value.get(); }
+
+        String type() { return "counter"; }
+        void render(PrintWriter writer) { writer.println(name + " " + value.get()); }
+        void reset() { value.set(0); }
+    }
+
+    // counters labeled by enum value
+    public static class Counters<E extends Enum<E>> extends Metric {
+        private final String labelName;
+        private final E[] labels;
+        private final AtomicLongArray values;
+
+        Counters(String name, String help, String labelName, E[] labels) {
+            super(name, help);
+            this.labelName = labelName;
+            this.labels = labels;
+            values = new AtomicLongArray(labels.length);
+        }
+
+        public void inc(E label) { values.incrementAndGet(label.ordinal()); }
+        public long get(E label) { return values.get(label.ordinal()); }
+
+        String type() { return "counter"; }
+
+        void render(PrintWriter writer) {
+            for (int i = 0; i < labels.length; i++)
+                writer.println(name + "{" + labelName + "=\"" + label(labels[i]) + "\"} " + values.get(i));
+        }
+
+        void reset() {
+            for (int i = 0; i < labels.length; i++) values.set(i, 0);
+        }
+    }
+
+    // values computed at render time
+    abstract static class Gauge extends Metric {
+        private final String labelName;
+
+        Gauge(String name, String help, String labelName) {
+            super(name, help);
+            this.labelName = labelName;
+        }
+
+        abstract long[] values();
+        abstract String label(int i);
+
+        String type() { return "gauge"; }
+
+        void render(PrintWriter writer) {
+            long[] values = values();
+            for (int i = 0; i < values.length; i++)
+                writer.println(name + "{" + labelName + "=\"" + label(i) + "\"} " + values[i]);
+        }
+    }
+
+    public static class Histogram extends Metric {
+        // upper bounds in seconds
+        static final double[] BUCKETS = {0.001, 0.005, 0.01, 0.05, 0.1, 0.5, 1, 5, 10};
+
+        private final String labels;
+        private final double[] buckets;
+        private final long[] bounds;
+        private final AtomicLongArray counts;
+        private final AtomicLong sum = new AtomicLong();
+
+        Histogram(String name, String help) { this(name, help, null, BUCKETS); }
+
+        Histogram(String name, String help, String labels, double[] buckets) {
+            super(name, help);
+            this.labels = labels;
+            this.buckets = buckets;
+
+            bounds = new long[buckets.length];
+            for (int i = 0; i < buckets.length; i++) bounds[i] = (long) (buckets[i] * 1000000000L);
+            counts = new AtomicLongArray(buckets.length + 1);
+        }
+
+        public void observe(long nanos) {
+            int i = 0;
+            while (i < bounds.length && nanos > bounds[i]) i++;
+
+            counts.incrementAndGet(i);
+            sum.addAndGet(nanos);
+        }
+
+        // observes time since start (System.nanoTime())
+        public void observeSince(long start) { observe(System.nanoTime() - start); }
+
+        public long count() {
+            long count = 0;
+            for (int i = 0; i < counts.length(); i++) count += counts.get(i);
+            return count;
+        }
+
+        String type() { return "histogram"; }
+
+        void render(PrintWriter writer) {
+            String prefix = labels != null ? labels + "," : "";
+            String suffix = labels != null ? "{" + labels + "}" : "";
+
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += counts.get(i);
+                writer.println(name + "_bucket{" + prefix + "le=\"" + format(buckets[i]) + "\"} " + cumulative);
+            }
+
+            cumulative += counts.get(buckets.length);
+            writer.println(name + "_bucket{" + prefix + "le=\"+Inf\"} " + cumulative);
+            writer.println(name + "_sum" + suffix + " " + format(sum.get() / 1e9));
+            writer.println(name + "_count" + suffix + " " + cumulative);
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+            sum.set(0);
+        }
+    }
+
+    // Histogram of slow events, that also keeps recent samples to report exact percentiles
+    public static class Latencies extends Histogram {
+        static final double[] BUCKETS = {1, 5, 10, 30, 60, 120, 300, 600, 1800};
+        static final int SAMPLES = 1024;
+
+        private final long[] samples = new long[SAMPLES]; // ms
+        private int size, next;
+
+        Latencies(String name, String help, String labels) { super(name, help, labels, BUCKETS); }
+
+        public void observe(Date from, Date to) {
+            long ms = Math.max(0, to.getTime() - from.getTime());
+            observe(ms * 1000000);
+
+            synchronized (this) {
+                samples[next] = ms;
+                next = (next + 1) % SAMPLES;
+                size = Math.min(size + 1, SAMPLES);
+            }
+        }
+
+        // percentiles (0..100) of recent samples in ms, null if no samples
+        public synchronized long[] percentiles(double... ps) {
+            if (size == 0) return null;
+
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+
+            long[] result = new long[ps.length];
+            for (int i = 0; i < ps.length; i++) {
+                int idx = (int) Math.ceil(ps[i] / 100 * size) - 1;
+                result[i] = sorted[Math.max(0, Math.min(size - 1, idx))];
+            }
+            return result;
+        }
+
+        @SuppressWarnings("unchecked")
+        public synchronized JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            json.put("count", count());
+
+            long[] percentiles = percentiles(50, 90, 99, 100);
+            if (percentiles != null) {
+                json.put("p50", percentiles[0]);
+                json.put("p90", percentiles[1]);
+                json.put("p99", percentiles[2]);
+                json.put("max", percentiles[3]);
+            }
+
+            return json;
+        }
+
+        synchronized void reset() {
+            super.reset();
+            size = next = 0;
+        }
+    }
+
+    // {"namenode": {"offer_wait": {"count":1, "p50":100, ...}, ...}, "datanode": ...}, times in ms
+    @SuppressWarnings("unchecked")
+    public static JSONObject lifecycleJson() {
+        JSONObject json = new JSONObject();
+
+        for (Node.Type type : Node.Type.values()) {
+            JSONObject typeJson = new JSONObject();
+            for (Phase phase : Phase.values())
+                typeJson.put(label(phase), lifecycle(type, phase).toJson());
+            json.put(label(type), typeJson);
+        }
+
+        return json;
+    }
+}
@@ -0,0 +1,109 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.util.Period;
+import net.elodina.mesos.util.Strings;
+import org.json.simple.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/*
+    HDFS mover run, migrating blocks to storage types required by storage policies of paths.
+    Requested via api, picked up & run by namenode executor, which reports state back.
+    Kept in memory, single run at a time. Run ids are time based, so they stay unique across scheduler restarts.
+    Run fails when namenode task stops, when it's not picked up within PICKUP_TIMEOUT or when reset via api.
+ */
+public class Mover {
+    static final Period PICKUP_TIMEOUT = new Period("5m");
+
+    public enum State {
+        IDLE,
+        REQUESTED,
+        RUNNING,
+        FINISHED,
+        FAILED
+    }
+
+    private static long id;
+    private static State state = State.IDLE;
+    private static List<String> paths = new ArrayList<>();
+    private static String message;
+
+    private static Date requestTime;
+    private static Date finishTime;
+
+    private Mover() {}
+
+    // requests new run, returns its id
+    public static synchronized long request(List<String> paths) {
+        expire(new Date());
+        if (isActive()) throw new IllegalStateException("mover is " + state.name().toLowerCase());
+
+        id = Math.max(System.currentTimeMillis(), id + 1);
+        state = State.REQUESTED;
+        Mover.paths = new ArrayList<>(paths);
+        message = null;
+
+        requestTime = new Date();
+        finishTime = null;
+        return id;
+    }
+
+    // state reported by executor, reports of other or completed runs are ignored
+    public static synchronized boolean report(long id, State state, String message) {
+        if (id != Mover.id || !isActive() || state == State.IDLE || state == State.REQUESTED) return false;
+
+        Mover.state = state;
+        Mover.message = message;
+        if (state == State.FINISHED || state == State.FAILED) finishTime = new Date();
+
+        return true;
+    }
+
+    // fails active run, returns false if there is none
+    public static synchronized boolean fail(String message) {
+        if (!isActive()) return false;
+
+        state = State.FAILED;
+        Mover.message = message;
+        finishTime = new Date();
+        return true;
+    }
+
+    // fails requested run, not picked up by executor in time
+    static synchronized void expire(Date now) {
+        if (state == State.REQUESTED && now.getTime() - requestTime.getTime() > PICKUP_TIMEOUT.ms())
+            fail("not picked up by namenode executor within " + PICKUP_TIMEOUT);
+    }
+
+    private static boolean isActive() { return state == State.REQUESTED || state == State.RUNNING; }
+
+    public static synchronized long id() { return id; }
+    public static synchronized State state() { return state; }
+
+    @SuppressWarnings("unchecked")
+    public static synchronized JSONObject toJson() {
+        expire(new Date());
+        JSONObject json = new JSONObject();
+
+        json.put("id", id);
+        json.put("state", state.name().toLowerCase());
+        if (!paths.isEmpty()) json.put("paths", Strings.join(paths, ","));
+        if (message != null) json.put("message", message);
+
+        if (requestTime != null) json.put("requestTime", requestTime.getTime());
+        if (finishTime != null) json.put("finishTime", finishTime.getTime());
+
+        return json;
+    }
+
+    public static synchronized void reset() {
+        id = 0;
+        state = State.IDLE;
+        paths = new ArrayList<>();
+        message = null;
+        requestTime = null;
+        finishTime = null;
+    }
+}
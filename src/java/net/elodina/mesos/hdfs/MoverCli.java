@@ -0,0 +1,117 @@
+package net.elodina.mesos.hdfs;
+
+import org.json.simple.JSONObject;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.elodina.mesos.hdfs.Cli.Error;
+import static net.elodina.mesos.hdfs.Cli.*;
+
+public class MoverCli {
+    public static void handle(List<String> args, boolean help) {
+        if (help) {
+            handleHelp(args);
+            return;
+        }
+
+        if (args.isEmpty()) throw new Error("command required");
+        String cmd = args.remove(0);
+
+        switch (cmd) {
+            case "start": handleStart(args, false); break;
+            case "status": handleStatus(false); break;
+            case "reset": handleReset(false); break;
+            default: throw new Error("unsupported command " + cmd);
+        }
+    }
+
+    private static void handleHelp(List<String> args) {
+        String cmd = args.isEmpty() ? null : args.remove(0);
+
+        if (cmd == null) {
+            printLine("HDFS mover commands\nUsage: mover <cmd>\n");
+            printCmds();
+
+            printLine();
+            printLine("Run `help mover <cmd>` to see details of specific command");
+            return;
+        }
+
+        switch (cmd) {
+            case "start": handleStart(args, true); break;
+            case "status": handleStatus(true); break;
+            case "reset": handleReset(true); break;
+            default: throw new Error("unsupported command " + cmd);
+        }
+    }
+
+    private static void handleStart(List<String> args, boolean help) {
+        if (help) {
+            printLine("Run HDFS mover on namenode host\nUsage: mover start [<paths>]\n");
+            printLine("Migrates blocks of paths (comma-separated, default /) to storage types of their storage policies.");
+            printLine();
+            handleGenericOptions(null, true);
+            return;
+        }
+
+        Map<String, String> params = new HashMap<>();
+        if (!args.isEmpty()) params.put("paths", args.remove(0));
+
+        JSONObject json;
+        try { json = sendRequest("/mover/start", params); }
+        catch (IOException e) { throw new Error("" + e); }
+
+        printLine("mover requested:");
+        printMover(json, 1);
+    }
+
+    private static void handleStatus(boolean help) {
+        if (help) {
+            printLine("Show last HDFS mover run\nUsage: mover status\n");
+            handleGenericOptions(null, true);
+            return;
+        }
+
+        JSONObject json;
+        try { json = sendRequest("/mover/status", new HashMap<String, String>()); }
+        catch (IOException e) { throw new Error("" + e); }
+
+        printMover(json, 0);
+    }
+
+    private static void handleReset(boolean help) {
+        if (help) {
+            printLine("Fail active HDFS mover run, e.g. stuck after executor failure\nUsage: mover reset\n");
+            handleGenericOptions(null, true);
+            return;
+        }
+
+        JSONObject json;
+        try { json = sendRequest("/mover/reset", new HashMap<String, String>()); }
+        catch (IOException e) { throw new Error("" + e); }
+
+        printLine("mover reset:");
+        printMover(json, 1);
+    }
+
+    private static void printMover(JSONObject json, int indent) {
+        printLine("id: " + json.get("id"), indent);
+        printLine("state: " + json.get("state"), indent);
+        if (json.containsKey("paths")) printLine("paths: " + json.get("paths"), indent);
+        if (json.containsKey("message")) printLine("message: " + json.get("message"), indent);
+
+        if (json.containsKey("requestTime")) printLine("requested: " + NodeCli.dateTime(new Date(((Number) json.get("requestTime")).longValue())), indent);
+        if (json.containsKey("finishTime")) printLine("finished: " + NodeCli.dateTime(new Date(((Number) json.get("finishTime")).longValue())), indent);
+    }
+
+    private static void printCmds() {
+        printLine("Commands:");
+        printLine("start      - run HDFS mover", 1);
+        printLine("status     - show last mover run", 1);
+        printLine("reset      - fail active mover run", 1);
+    }
+}
@@ -17,8 +17,12 @@ public class Node {
 
     public double cpus = 0.5;
     public long mem = 512;
+    public long disk; // Mb, 0 - not reserved
+    public long cacheMem; // Mb of datanode locked memory for HDFS cache, reserved on top of mem
 
     public Map<String, Constraint> constraints = new LinkedHashMap<>();
+    public Map<String, Preference> preferences = new LinkedHashMap<>();
+    public Period preferenceWait = new Period("30s");
 
     public String executorJvmOpts;
     public String hadoopJvmOpts;
@@ -27,6 +31,17 @@ public class Node {
 
     public String externalFsUri;
 
+    // agent dir, keeping node data in <dataDir>/<id> outside of sandbox, so it survives task restarts; null - sandbox
+    public String dataDir;
+    // max time stopped node with local data waits for its last host, then is released to any host; null - forever
+    public Period dataWait;
+    // agent volumes for datanode blocks, one data dir per volume, with optional storage type: /mnt/disk*,[SSD]/mnt/ssd0; empty - data dir
+    public List<String> volumes = new ArrayList<>();
+    // agent dir for datanode domain socket, enabling short-circuit local reads of co-located clients; null - disabled
+    public String socketDir;
+
+    public volatile Date startTime; // when node became STARTING
+
     public Stickiness stickiness = new Stickiness();
     public Failover failover = new Failover();
     public Runtime runtime;
@@ -39,6 +54,49 @@ public class Node {
 
     public boolean isExternal() { return externalFsUri != null; }
 
+    static final int MIN_HANDLERS = 10;
+    static final int MAX_NAMENODE_HANDLERS = 200;
+    static final int MAX_DATANODE_HANDLERS = 64;
+    static final int MIN_XCEIVERS = 4096;
+    static final int MAX_XCEIVERS = 16384;
+
+    public static final List<String> STORAGE_TYPES = Arrays.asList("DISK", "SSD", "ARCHIVE", "RAM_DISK");
+
+    // [SSD]/mnt/ssd0 -> SSD, null if not specified
+    public static String volumeStorageType(String volume) {
+        if (!volume.startsWith("[")) return null;
+
+        int end = volume.indexOf("]");
+        if (end == -1) throw new IllegalArgumentException("invalid volume " + volume);
+
+        String type = volume.substring(1, end).toUpperCase();
+        if (!STORAGE_TYPES.contains(type)) throw new IllegalArgumentException("unsupported storage type " + type);
+        return type;
+    }
+
+    // [SSD]/mnt/ssd0 -> /mnt/ssd0
+    public static String volumePath(String volume) {
+        return volume.startsWith("[") && volume.contains("]") ? volume.substring(volume.indexOf("]") + 1) : volume;
+    }
+
+    // node data outlives task on its host
+    // hadoop substitutes _PORT with datanode data port, so datanodes sharing host & dir get own sockets
+    public String domainSocketPath() { return socketDir != null ? socketDir + "/dn._PORT" : null; }
+
+    public boolean hasLocalData() { return dataDir != null || !volumes.isEmpty(); }
+
+    // node with local data is pinned to its last host, until released explicitly or by data wait
+    public boolean isPinned(Date now) {
+        if (!hasLocalData() || stickiness.hostname == null) return false;
+        return dataWait == null || stickiness.stopTime == null || now.getTime() - stickiness.stopTime.getTime() < dataWait.ms();
+    }
+
+    // time node waits for offers since start, 0 if it's not waiting
+    public long queueTime(Date now) {
+        if (state != State.STARTING || runtime != null || startTime == null) return 0;
+        return Math.max(0, now.getTime() - startTime.getTime());
+    }
+
     public String matches(Offer offer) { return matches(offer, Collections.<String, Collection<String>>emptyMap(), new Date()); }
 
     public String matches(Offer offer, Map<String, Collection<String>> otherAttributes) { return matches(offer, otherAttributes, new Date()); }
@@ -50,7 +108,8 @@ public class Node {
 
         // resources
         if (reservation.cpus < cpus) return "cpus < " + cpus;
-        if (reservation.mem < mem) return "mem < " + mem;
+        if (reservation.mem < mem + cacheMem) return "mem < " + (mem + cacheMem);
+        if (reservation.disk < disk) return "disk < " + disk;
 
         // namenode running
         if (type == Type.DATANODE) {
@@ -62,18 +121,17 @@ public class Node {
         }
 
         // constraints
-        Map<String, String> offerAttributes = new HashMap<>();
-        offerAttributes.put("hostname", offer.hostname());
-
-        for (Attribute attribute : offer.attributes())
-            offerAttributes.put(attribute.name(), "" + attribute.value());
-
+        Map<String, String> offerAttributes = offerAttributes(offer);
         for (String name : constraints.keySet()) {
             Constraint constraint = constraints.get(name);
             if (!offerAttributes.containsKey(name)) return "no " + name + " attribute";
             if (!constraint.matches(offerAttributes.get(name), otherAttributes.get(name))) return name + " doesn't match " + constraint;
         }
 
+        // data dir stays on the last host
+        if (isPinned(now) && !stickiness.hostname.equals(offer.hostname()))
+            return "hostname != data dir hostname";
+
         // stickiness
         if (!stickiness.allowsHostname(offer.hostname(), now))
             return "hostname != stickiness hostname";
@@ -81,6 +139,43 @@ public class Node {
         return null;
     }
 
+    // sum of weights of preferences, matched by offer
+    public double preferenceScore(Offer offer, Map<String, Collection<String>> otherAttributes) {
+        if (preferences.isEmpty()) return 0;
+
+        double score = 0;
+        Map<String, String> offerAttributes = offerAttributes(offer);
+        for (String name : preferences.keySet()) {
+            Preference preference = preferences.get(name);
+            String value = offerAttributes.get(name);
+            if (value != null && preference.constraint.matches(value, otherAttributes.get(name))) score += preference.weight;
+        }
+
+        return score;
+    }
+
+    public double maxPreferenceScore() {
+        double score = 0;
+        for (Preference preference : preferences.values()) score += preference.weight;
+        return score;
+    }
+
+    // true if node still could wait for offer matching all preferences
+    public boolean isWaitingPreferred(Date now) {
+        if (preferences.isEmpty() || startTime == null) return false;
+        return now.getTime() < startTime.getTime() + preferenceWait.ms();
+    }
+
+    private static Map<String, String> offerAttributes(Offer offer) {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("hostname", offer.hostname());
+
+        for (Attribute attribute : offer.attributes())
+            attributes.put(attribute.name(), "" + attribute.value());
+
+        return attributes;
+    }
+
     public Reservation reserve(Offer offer) {
         Map<String, Resource> resources = new HashMap<>();
         for (Resource resource : offer.resources()) resources.put(resource.name(), resource);
@@ -93,12 +188,17 @@ public class Node {
         // mem
         long reservedMem = 0;
         Resource memResource = resources.get("mem");
-        if (memResource != null) reservedMem = Math.min((long) memResource.value().asLong(), mem);
+        if (memResource != null) reservedMem = Math.min((long) memResource.value().asLong(), mem + cacheMem);
+
+        // disk
+        long reservedDisk = 0;
+        Resource diskResource = resources.get("disk");
+        if (diskResource != null) reservedDisk = Math.min((long) diskResource.value().asDouble(), disk);
 
         // ports
         Map<String, Integer> reservedPorts = reservePorts(offer);
 
-        return new Reservation(reservedCpus, reservedMem, reservedPorts);
+        return new Reservation(reservedCpus, reservedMem, reservedDisk, reservedPorts);
     }
 
     private Map<String, Integer> reservePorts(Offer offer) {
@@ -167,6 +267,37 @@ public class Node {
             runtime.attributes.put(attribute.name(), "" + attribute.value());
 
         runtime.fsUri = getFsUri();
+        runtime.tuning.putAll(tuning());
+    }
+
+    /*
+        Effective hdfs-site performance props: handler & transfer thread counts derived from reserved (or requested)
+        cpus and datanode count, hdfs-site-opts take precedence. Namenode handlers follow hadoop guidance of
+        20 * ln(datanodes), datanode handlers & xceivers scale with cpus. Service rpc handlers are not derived:
+        they take effect only with separate service rpc address, which is not configured.
+     */
+    public Map<String, String> tuning() {
+        double cpus = reservation != null ? reservation.cpus : this.cpus;
+        Map<String, String> props = new LinkedHashMap<>();
+
+        if (type == Type.NAMENODE) {
+            int datanodes = Nodes.getNodes(Type.DATANODE).size();
+            int handlers = (int) Math.round(20 * Math.log(Math.max(datanodes, 1)));
+            handlers = Math.max(MIN_HANDLERS, Math.min(handlers, Math.min(MAX_NAMENODE_HANDLERS, (int) Math.ceil(cpus * 40))));
+
+            props.put("dfs.namenode.handler.count", "" + handlers);
+        } else {
+            int handlers = Math.max(MIN_HANDLERS, Math.min(MAX_DATANODE_HANDLERS, (int) Math.ceil(cpus * 10)));
+            int xceivers = (int) Math.max(MIN_XCEIVERS, Math.min(MAX_XCEIVERS, Math.ceil(cpus * 2048)));
+
+            props.put("dfs.datanode.handler.count", "" + handlers);
+            props.put("dfs.datanode.max.transfer.threads", "" + xceivers);
+        }
+
+        for (String name : props.keySet())
+            if (hdfsSiteOpts.containsKey(name)) props.put(name, hdfsSiteOpts.get(name));
+
+        return props;
     }
 
     private String getFsUri() {
@@ -224,13 +355,16 @@ public class Node {
         cmd += " net.elodina.mesos.hdfs.Executor";
         cmd += " --driver=" + config.driver;
         cmd += " --debug=" + config.debug;
+        if (type == Type.NAMENODE) cmd += " --api=" + config.api; // topology updates
+        if (config.nativeLibDir != null) cmd += " --native-lib-dir=" + config.nativeLibDir;
 
+        // content-addressed uris are safe to cache: new artifact -> new uri
         Command command = new Command()
-            .addUri(new Command.URI(config.api + "/jar/" + config.jar.getName(), false).cache(false))
-            .addUri(new Command.URI(config.api + "/hadoop/" + config.hadoop.getName()));
+            .addUri(new Command.URI(config.artifactApi() + "/jar/" + config.artifactPath(config.jar, config.jarHash), false).cache(config.jarHash != null))
+            .addUri(new Command.URI(config.artifactApi() + "/hadoop/" + config.artifactPath(config.hadoop, config.hadoopHash)).cache(config.hadoopHash != null));
 
         if (config.jre != null) {
-            command.addUri(new Command.URI(config.api + "/jre/" + config.jre.getName()));
+            command.addUri(new Command.URI(config.artifactApi() + "/jre/" + config.artifactPath(config.jre, config.jreHash)).cache(config.jreHash != null));
             cmd = "jre/bin/" + cmd;
         }
 
@@ -252,8 +386,12 @@ public class Node {
 
         json.put("cpus", cpus);
         json.put("mem", mem);
+        if (disk != 0) json.put("disk", disk);
+        if (cacheMem != 0) json.put("cacheMem", cacheMem);
 
         if (!constraints.isEmpty()) json.put("constraints", Strings.formatMap(constraints));
+        if (!preferences.isEmpty()) json.put("preferences", Strings.formatMap(preferences));
+        json.put("preferenceWait", "" + preferenceWait);
 
         if (executorJvmOpts != null) json.put("executorJvmOpts", executorJvmOpts);
         if (hadoopJvmOpts != null) json.put("hadoopJvmOpts", hadoopJvmOpts);
@@ -262,6 +400,11 @@ public class Node {
         if (!hdfsSiteOpts.isEmpty()) json.put("hdfsSiteOpts", new JSONObject(hdfsSiteOpts));
 
         if (externalFsUri != null) json.put("externalFsUri", externalFsUri);
+        if (dataDir != null) json.put("dataDir", dataDir);
+        if (dataWait != null) json.put("dataWait", "" + dataWait);
+        if (!volumes.isEmpty()) json.put("volumes", Strings.join(volumes, ","));
+        if (socketDir != null) json.put("socketDir", socketDir);
+        if (startTime != null) json.put("startTime", dateTimeFormat().format(startTime));
 
         json.put("stickiness", stickiness.toJson());
         json.put("failover", failover.toJson());
@@ -278,6 +421,8 @@ public class Node {
 
         cpus = ((Number) json.get("cpus")).doubleValue();
         mem = ((Number) json.get("mem")).longValue();
+        if (json.containsKey("disk")) disk = ((Number) json.get("disk")).longValue();
+        if (json.containsKey("cacheMem")) cacheMem = ((Number) json.get("cacheMem")).longValue();
 
         constraints.clear();
         if (json.containsKey("constraints")) {
@@ -285,6 +430,13 @@ public class Node {
             for (String name : m.keySet()) constraints.put(name, new Constraint(m.get(name)));
         }
 
+        preferences.clear();
+        if (json.containsKey("preferences")) {
+            Map<String, String> m = Strings.parseMap((String) json.get("preferences"));
+            for (String name : m.keySet()) preferences.put(name, new Preference(m.get(name)));
+        }
+        if (json.containsKey("preferenceWait")) preferenceWait = new Period((String) json.get("preferenceWait"));
+
         if (json.containsKey("executorJvmOpts")) executorJvmOpts = (String) json.get("executorJvmOpts");
         if (json.containsKey("hadoopJvmOpts")) hadoopJvmOpts = (String) json.get("hadoopJvmOpts");
 
@@ -301,6 +453,12 @@ public class Node {
         }
 
         if (json.containsKey("externalFsUri")) externalFsUri = (String) json.get("externalFsUri");
+        if (json.containsKey("dataDir")) dataDir = (String) json.get("dataDir");
+        if (json.containsKey("dataWait")) dataWait = new Period((String) json.get("dataWait"));
+        volumes.clear();
+        if (json.containsKey("volumes")) volumes.addAll(Arrays.asList(((String) json.get("volumes")).split(",")));
+        socketDir = (String) json.get("socketDir");
+        startTime = parseDate(json, "startTime");
 
         stickiness = new Stickiness((JSONObject) json.get("stickiness"));
         failover = new Failover((JSONObject) json.get("failover"));
@@ -321,6 +479,13 @@ public class Node {
         return format;
     }
 
+    private static Date parseDate(JSONObject json, String key) {
+        if (!json.containsKey(key)) return null;
+
+        try { return dateTimeFormat().parse((String) json.get(key)); }
+        catch (ParseException e) { throw new IllegalStateException(e); }
+    }
+
     public int hashCode() { return id.hashCode(); }
 
     public boolean equals(Object obj) { return obj instanceof Node && ((Node) obj).id.equals(id); }
@@ -362,6 +527,14 @@ public class Node {
 
         public String fsUri;
         public boolean killSent;
+        public int launchOrder; // same type nodes starting at launch, staggers datanode block reports
+        public Map<String, String> tuning = new LinkedHashMap<>(); // effective hdfs-site performance props
+        public String nativeLib; // native hadoop lib dir reported by executor, "" - not found, null - not reported
+
+        // lifecycle: task launched -> TASK_STARTING -> TASK_RUNNING
+        public Date launchTime;
+        public Date startingTime;
+        public Date runningTime;
 
         public Runtime() {}
         public Runtime(JSONObject json) { fromJson(json); }
@@ -379,6 +552,13 @@ public class Node {
 
             json.put("fsUri", fsUri);
             json.put("killSent", killSent);
+            if (launchOrder != 0) json.put("launchOrder", launchOrder);
+            if (!tuning.isEmpty()) json.put("tuning", Strings.formatMap(tuning));
+            if (nativeLib != null) json.put("nativeLib", nativeLib);
+
+            if (launchTime != null) json.put("launchTime", dateTimeFormat().format(launchTime));
+            if (startingTime != null) json.put("startingTime", dateTimeFormat().format(startingTime));
+            if (runningTime != null) json.put("runningTime", dateTimeFormat().format(runningTime));
 
             return json;
         }
@@ -394,19 +574,31 @@ public class Node {
 
             fsUri = (String) json.get("fsUri");
             killSent = (boolean) json.get("killSent");
+            if (json.containsKey("launchOrder")) launchOrder = ((Number) json.get("launchOrder")).intValue();
+            tuning.clear();
+            if (json.containsKey("tuning")) tuning.putAll(Strings.parseMap((String) json.get("tuning")));
+            nativeLib = (String) json.get("nativeLib");
+
+            launchTime = parseDate(json, "launchTime");
+            startingTime = parseDate(json, "startingTime");
+            runningTime = parseDate(json, "runningTime");
         }
     }
 
     public static class Reservation {
         double cpus = 0;
         long mem = 0;
+        long disk = 0;
         Map<String, Integer> ports = new HashMap<>();
 
         public Reservation() {}
 
-        public Reservation(double cpus, long mem, Map<String, Integer> ports) {
+        public Reservation(double cpus, long mem, Map<String, Integer> ports) { this(cpus, mem, 0, ports); }
+
+        public Reservation(double cpus, long mem, long disk, Map<String, Integer> ports) {
             this.cpus = cpus;
             this.mem = mem;
+            this.disk = disk;
             this.ports = ports;
         }
 
@@ -422,6 +614,10 @@ public class Node {
                     return new Resource("mem", new Value(Value.Type.SCALAR, (double)value));
                 }
 
+                Resource disk(long value) {
+                    return new Resource("disk", new Value(Value.Type.SCALAR, (double)value));
+                }
+
                 Resource port(long value) {
                     return new Resource("ports", new Value(Value.Type.RANGES, Arrays.asList(new Range((int)value))));
                 }
@@ -433,6 +629,7 @@ public class Node {
 
             if (cpus > 0) resources.add(r.cpus(cpus));
             if (mem > 0) resources.add(r.mem(mem));
+            if (disk > 0) resources.add(r.disk(disk));
 
             for (String name : ports.keySet())
                 resources.add(r.port(ports.get(name)));
@@ -443,6 +640,7 @@ public class Node {
         public void fromJson(JSONObject json) {
             cpus = (double) json.get("cpus");
             mem = (long) json.get("mem");
+            if (json.containsKey("disk")) disk = (long) json.get("disk");
 
             ports.clear();
             if (json.containsKey("ports")) {
@@ -458,6 +656,7 @@ public class Node {
 
             json.put("cpus", cpus);
             json.put("mem", mem);
+            if (disk > 0) json.put("disk", disk);
 
             if (!ports.isEmpty()) json.put("ports", new JSONObject(ports));
 
@@ -465,6 +664,35 @@ public class Node {
         }
     }
 
+    // soft constraint: offers matching it are preferred, with weight
+    public static class Preference {
+        public final Constraint constraint;
+        public final double weight;
+
+        public Preference(Constraint constraint, double weight) {
+            this.constraint = constraint;
+            this.weight = weight;
+        }
+
+        // like:r1, like:r1@2
+        public Preference(String s) {
+            int atIdx = s.lastIndexOf("@");
+            if (atIdx != -1) {
+                try { weight = Double.parseDouble(s.substring(atIdx + 1)); }
+                catch (NumberFormatException e) { throw new IllegalArgumentException("invalid weight: " + s); }
+                if (weight <= 0) throw new IllegalArgumentException("invalid weight: " + s);
+            } else
+                weight = 1;
+
+            constraint = new Constraint(atIdx != -1 ? s.substring(0, atIdx) : s);
+        }
+
+        public String toString() {
+            if (weight == 1) return "" + constraint;
+            return constraint + "@" + (weight == (long) weight ? "" + (long) weight : "" + weight);
+        }
+    }
+
     public static class Stickiness {
         public Period period = new Period("30m");
         public volatile String hostname;
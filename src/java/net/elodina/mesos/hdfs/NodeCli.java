@@ -3,10 +3,13 @@ package net.elodina.mesos.hdfs;
 import joptsimple.OptionException;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
+import joptsimple.OptionSpec;
+import net.elodina.mesos.util.IO;
 import net.elodina.mesos.util.Strings;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.*;
@@ -29,6 +32,9 @@ public class NodeCli {
             case "add": case "update": handleAddUpdate(cmd, args, false); break;
             case "start": case "stop": handleStartStop(cmd, args, false); break;
             case "remove": handleRemove(args, false); break;
+            case "batch": handleBatch(args, false); break;
+            case "lifecycle": handleLifecycle(false); break;
+            case "explain": handleExplain(args, false); break;
             default: throw new Error("unsupported command " + cmd);
         }
     }
@@ -50,6 +56,9 @@ public class NodeCli {
             case "add": case "update": handleAddUpdate(cmd, args, true); break;
             case "start": case "stop": handleStartStop(cmd, args, true); break;
             case "remove": handleRemove(args, true); break;
+            case "batch": handleBatch(args, true); break;
+            case "lifecycle": handleLifecycle(true); break;
+            case "explain": handleExplain(args, true); break;
             default: throw new Error("unsupported command " + cmd);
         }
     }
@@ -81,25 +90,7 @@ public class NodeCli {
     }
 
     private static void handleAddUpdate(String cmd, List<String> args, boolean help) {
-        OptionParser parser = new OptionParser();
-        if (cmd.equals("add")) parser.accepts("type", "node type (name_node, data_node).").withRequiredArg().required().ofType(String.class);
-
-        parser.accepts("cpus", "CPU amount (0.5, 1, 2).").withRequiredArg().ofType(Double.class);
-        parser.accepts("mem", "Mem amount in Mb.").withRequiredArg().ofType(Long.class);
-
-        parser.accepts("constraints", "Node constraints (hostname=like:master,rack=like:1.*)").withRequiredArg();
-
-        parser.accepts("executor-jvm-opts", "Executor JVM options.").withRequiredArg().ofType(String.class);
-        parser.accepts("hadoop-jvm-opts", "Hadoop JVM options.").withRequiredArg().ofType(String.class);
-
-        parser.accepts("core-site-opts", "Hadoop core-site.xml options.").withRequiredArg().ofType(String.class);
-        parser.accepts("hdfs-site-opts", "Hadoop hdfs-site.xml options.").withRequiredArg().ofType(String.class);
-
-        parser.accepts("external-fs-uri", "FS URI of external namenode. If defined this node becomes external.").withRequiredArg().ofType(String.class);
-
-        parser.accepts("failover-delay", "failover delay (10s, 5m, 3h)").withRequiredArg().ofType(String.class);
-        parser.accepts("failover-max-delay", "max failover delay. See failoverDelay.").withRequiredArg().ofType(String.class);
-        parser.accepts("failover-max-tries", "max failover tries. Default - none").withRequiredArg().ofType(String.class);
+        OptionParser parser = addUpdateParser(cmd);
 
         if (help) {
             printLine(Strings.capitalize(cmd) + " node \nUsage: node " + cmd + " <ids> [options]\n");
@@ -127,8 +118,12 @@ public class NodeCli {
         String type = (String) options.valueOf("type");
         Double cpus = (Double) options.valueOf("cpus");
         Long mem = (Long) options.valueOf("mem");
+        Long disk = (Long) options.valueOf("disk");
+        Long cacheMem = (Long) options.valueOf("cache-mem");
 
         String constraints = (String) options.valueOf("constraints");
+        String preferences = (String) options.valueOf("preferences");
+        String preferenceWait = (String) options.valueOf("preference-wait");
 
         String executorJvmOpts = (String) options.valueOf("executor-jvm-opts");
         String hadoopJvmOpts = (String) options.valueOf("hadoop-jvm-opts");
@@ -136,11 +131,16 @@ public class NodeCli {
         String coreSiteOpts = (String) options.valueOf("core-site-opts");
         String hdfsSiteOpts = (String) options.valueOf("hdfs-site-opts");
 
+        String dataDir = (String) options.valueOf("data-dir");
+        String dataWait = (String) options.valueOf("data-wait");
+        String volumes = (String) options.valueOf("volumes");
+        String socketDir = (String) options.valueOf("socket-dir");
         String externalFsUri = (String) options.valueOf("external-fs-uri");
 
         String failoverDelay = (String) options.valueOf("failover-delay");
         String failoverMaxDelay = (String) options.valueOf("failover-max-delay");
         String failoverMaxTries = (String) options.valueOf("failover-max-tries");
+        String stickinessHostname = (String) options.valueOf("stickiness-hostname");
 
         Map<String, String> params = new HashMap<>();
         params.put("node", expr);
@@ -148,8 +148,12 @@ public class NodeCli {
         if (type != null) params.put("type", type);
         if (cpus != null) params.put("cpus", "" + cpus);
         if (mem != null) params.put("mem", "" + mem);
+        if (disk != null) params.put("disk", "" + disk);
+        if (cacheMem != null) params.put("cacheMem", "" + cacheMem);
 
         if (constraints != null) params.put("constraints", constraints);
+        if (preferences != null) params.put("preferences", preferences);
+        if (preferenceWait != null) params.put("preferenceWait", preferenceWait);
 
         if (executorJvmOpts != null) params.put("executorJvmOpts", executorJvmOpts);
         if (hadoopJvmOpts != null) params.put("hadoopJvmOpts", hadoopJvmOpts);
@@ -157,11 +161,16 @@ public class NodeCli {
         if (coreSiteOpts != null) params.put("coreSiteOpts", coreSiteOpts);
         if (hdfsSiteOpts != null) params.put("hdfsSiteOpts", hdfsSiteOpts);
 
+        if (dataDir != null) params.put("dataDir", dataDir);
+        if (dataWait != null) params.put("dataWait", dataWait);
+        if (volumes != null) params.put("volumes", volumes);
+        if (socketDir != null) params.put("socketDir", socketDir);
         if (externalFsUri != null) params.put("externalFsUri", externalFsUri);
 
         if (failoverDelay != null) params.put("failoverDelay", failoverDelay);
         if (failoverMaxDelay != null) params.put("failoverMaxDelay", failoverMaxDelay);
         if (failoverMaxTries != null) params.put("failoverMaxTries", failoverMaxTries);
+        if (stickinessHostname != null) params.put("stickinessHostname", stickinessHostname);
 
         JSONArray json;
         try { json = sendRequest("/node/" + cmd, params); }
@@ -177,9 +186,40 @@ public class NodeCli {
         }
     }
 
-    private static void handleStartStop(String cmd, List<String> args, boolean help) {
+    static OptionParser addUpdateParser(String cmd) {
         OptionParser parser = new OptionParser();
-        parser.accepts("timeout", "timeout (30s, 1m, 1h). 0s - no timeout").withRequiredArg().ofType(String.class);
+        if (cmd.equals("add")) parser.accepts("type", "node type (name_node, data_node).").withRequiredArg().required().ofType(String.class);
+
+        parser.accepts("cpus", "CPU amount (0.5, 1, 2).").withRequiredArg().ofType(Double.class);
+        parser.accepts("mem", "Mem amount in Mb.").withRequiredArg().ofType(Long.class);
+        parser.accepts("cache-mem", "Datanode memory in Mb for HDFS cache, reserved on top of mem. Default - 0 (no cache).").withRequiredArg().ofType(Long.class);
+        parser.accepts("disk", "Disk amount in Mb, reserved for node data. Default - 0 (not reserved).").withRequiredArg().ofType(Long.class);
+
+        parser.accepts("constraints", "Node constraints (hostname=like:master,rack=like:1.*)").withRequiredArg();
+        parser.accepts("preferences", "Node soft constraints with optional weights (rack=like:r1@2,hostname=like:slave.*)").withRequiredArg();
+        parser.accepts("preference-wait", "Max time to wait for offer matching all preferences (10s, 5m). Default - 30s").withRequiredArg().ofType(String.class);
+
+        parser.accepts("executor-jvm-opts", "Executor JVM options.").withRequiredArg().ofType(String.class);
+        parser.accepts("hadoop-jvm-opts", "Hadoop JVM options. Heap, metaspace, direct memory & GC are derived from mem, unless specified here.").withRequiredArg().ofType(String.class);
+
+        parser.accepts("core-site-opts", "Hadoop core-site.xml options.").withRequiredArg().ofType(String.class);
+        parser.accepts("hdfs-site-opts", "Hadoop hdfs-site.xml options.").withRequiredArg().ofType(String.class);
+
+        parser.accepts("data-dir", "Agent dir for node data (<dir>/<id>), kept between restarts. Node is relaunched on the same host until released by --data-wait or --stickiness-hostname=. Default - sandbox.").withRequiredArg().ofType(String.class);
+        parser.accepts("data-wait", "Max time stopped node with data dir or volumes waits for its last host (10m, 1d), then it's launched on any host without its data. Default - none (waits forever).").withRequiredArg().ofType(String.class);
+        parser.accepts("volumes", "Agent volumes for datanode blocks, one data dir per volume, with optional storage type (/mnt/disk*,[SSD]/mnt/ssd0). Default - data dir.").withRequiredArg().ofType(String.class);
+        parser.accepts("socket-dir", "Agent dir for datanode domain socket, enabling short-circuit local reads (/var/run/hdfs-sockets). Default - disabled.").withRequiredArg().ofType(String.class);
+        parser.accepts("external-fs-uri", "FS URI of external namenode. If defined this node becomes external.").withRequiredArg().ofType(String.class);
+
+        parser.accepts("failover-delay", "failover delay (10s, 5m, 3h)").withRequiredArg().ofType(String.class);
+        parser.accepts("failover-max-delay", "max failover delay. See failoverDelay.").withRequiredArg().ofType(String.class);
+        parser.accepts("failover-max-tries", "max failover tries. Default - none").withRequiredArg().ofType(String.class);
+        parser.accepts("stickiness-hostname", "Host node is relaunched on. Empty value releases node to any host.").withRequiredArg().ofType(String.class);
+        return parser;
+    }
+
+    private static void handleStartStop(String cmd, List<String> args, boolean help) {
+        OptionParser parser = startStopParser();
 
         if (help) {
             printLine(Strings.capitalize(cmd) + " node \nUsage: node " + cmd + " <ids> [options]\n");
@@ -233,6 +273,12 @@ public class NodeCli {
         }
     }
 
+    static OptionParser startStopParser() {
+        OptionParser parser = new OptionParser();
+        parser.accepts("timeout", "timeout (30s, 1m, 1h). 0s - no timeout").withRequiredArg().ofType(String.class);
+        return parser;
+    }
+
     private static void handleRemove(List<String> args, boolean help) {
         if (help) {
             printLine("Remove node\nUsage: node remove <ids>\n");
@@ -253,6 +299,192 @@ public class NodeCli {
         printLine(title);
     }
 
+    private static void handleBatch(List<String> args, boolean help) {
+        if (help) {
+            printLine("Apply node operations from file atomically\nUsage: node batch <file>\n");
+            printLine("File contains one operation per line: <cmd> <ids> [options].");
+            printLine("Cmd is one of add, update, start, stop, remove; options are the same as of the cmd.");
+            printLine("Empty lines and lines starting with # are ignored. Example:");
+            printLine("add dn0..9 --type=datanode --mem=2048", 1);
+            printLine("update dn0..9 --hadoop-jvm-opts=\"-Xmx1g -Xms1g\"", 1);
+            printLine("start dn0..9", 1);
+            printLine();
+            handleGenericOptions(null, true);
+            return;
+        }
+
+        if (args.isEmpty()) throw new Error("file required");
+        File file = new File(args.remove(0));
+
+        JSONArray ops;
+        try { ops = parseBatch(IO.readFile(file)); }
+        catch (IOException e) { throw new Error("" + e); }
+        catch (IllegalArgumentException e) { throw new Error(e.getMessage()); }
+
+        JSONArray json;
+        try { json = sendRequest("/node/batch", Collections.singletonMap("ops", "" + ops)); }
+        catch (IOException e) { throw new Error("" + e); }
+
+        printLine("batch applied:");
+        for (Object resultJson : json) {
+            JSONObject result = (JSONObject) resultJson;
+            printLine(result.get("op") + " " + Strings.join((JSONArray) result.get("nodes"), ", "), 1);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static JSONArray parseBatch(String content) {
+        JSONArray ops = new JSONArray();
+
+        String[] lines = content.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+
+            String prefix = "line " + (i + 1) + ": ";
+            List<String> tokens = tokenize(line);
+            if (tokens.size() < 2) throw new IllegalArgumentException(prefix + "<cmd> <ids> required");
+
+            String cmd = tokens.get(0);
+            OptionParser parser;
+            switch (cmd) {
+                case "add": case "update": parser = addUpdateParser(cmd); break;
+                case "start": case "stop": parser = startStopParser(); break;
+                case "remove": parser = new OptionParser(); break;
+                default: throw new IllegalArgumentException(prefix + "unsupported op " + cmd);
+            }
+
+            // same options as of the cmd, so typos aren't silently dropped
+            List<String> args = tokens.subList(2, tokens.size());
+            OptionSet options;
+            try { options = parser.parse(args.toArray(new String[args.size()])); }
+            catch (OptionException e) { throw new IllegalArgumentException(prefix + e.getMessage()); }
+
+            if (!options.nonOptionArguments().isEmpty())
+                throw new IllegalArgumentException(prefix + "invalid option " + options.nonOptionArguments().get(0));
+
+            JSONObject op = new JSONObject();
+            op.put("op", cmd);
+            op.put("node", tokens.get(1));
+
+            // values are converted lazily
+            for (OptionSpec<?> spec : options.specs()) {
+                String name = spec.options().iterator().next();
+                try { op.put(camelCase(name), "" + options.valueOf(spec)); }
+                catch (OptionException e) { throw new IllegalArgumentException(prefix + e.getMessage()); }
+            }
+
+            ops.add(op);
+        }
+
+        return ops;
+    }
+
+    // splits by whitespaces, keeping "quoted text" together
+    private static List<String> tokenize(String line) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = null;
+        boolean quoted = false;
+
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+                if (token == null) token = new StringBuilder();
+            } else if (Character.isWhitespace(c) && !quoted) {
+                if (token != null) tokens.add("" + token);
+                token = null;
+            } else {
+                if (token == null) token = new StringBuilder();
+                token.append(c);
+            }
+        }
+
+        if (quoted) throw new IllegalArgumentException("unclosed quote: " + line);
+        if (token != null) tokens.add("" + token);
+        return tokens;
+    }
+
+    // hadoop-jvm-opts -> hadoopJvmOpts
+    private static String camelCase(String name) {
+        String s = "";
+        for (String part : name.split("-"))
+            s += s.isEmpty() ? part : Strings.capitalize(part);
+        return s;
+    }
+
+    private static void handleLifecycle(boolean help) {
+        if (help) {
+            printLine("Show node start latencies by type and phase\nUsage: node lifecycle\n");
+            printLine("Phases: offer_wait - start to task launch, launch - launch to TASK_STARTING,");
+            printLine("operable - TASK_STARTING to TASK_RUNNING, total - start to TASK_RUNNING.");
+            printLine("Percentiles are computed over recent starts.");
+            printLine();
+            handleGenericOptions(null, true);
+            return;
+        }
+
+        JSONObject json;
+        try { json = sendRequest("/node/lifecycle", new HashMap<String, String>()); }
+        catch (IOException e) { throw new Error("" + e); }
+
+        for (Node.Type type : Node.Type.values()) {
+            JSONObject typeJson = (JSONObject) json.get(type.name().toLowerCase());
+            if (typeJson == null) continue;
+
+            printLine(type.name().toLowerCase() + ":");
+            for (Metrics.Phase phase : Metrics.Phase.values()) {
+                JSONObject phaseJson = (JSONObject) typeJson.get(phase.name().toLowerCase());
+                if (phaseJson == null) continue;
+
+                String s = String.format("%-10s count:%s", phase.name().toLowerCase(), phaseJson.get("count"));
+                if (phaseJson.containsKey("p50"))
+                    s += ", p50:" + duration(phaseJson.get("p50")) + ", p90:" + duration(phaseJson.get("p90"))
+                        + ", p99:" + duration(phaseJson.get("p99")) + ", max:" + duration(phaseJson.get("max"));
+                printLine(s, 1);
+            }
+        }
+    }
+
+    private static void handleExplain(List<String> args, boolean help) {
+        if (help) {
+            printLine("Explain node placement on agents, seen in recent offers\nUsage: node explain [<ids>]\n");
+            printLine("Matches nodes against last offer of each known agent, without launching anything.");
+            printLine("Best agent is chosen by preferences & placement strategy; preference wait & launch rate are reported.");
+            printLine("Offers, taken by other nodes of the same offer batch, aren't considered.");
+            printLine();
+            handleGenericOptions(null, true);
+            return;
+        }
+
+        Map<String, String> params = new HashMap<>();
+        if (!args.isEmpty()) params.put("node", args.remove(0));
+
+        JSONArray json;
+        try { json = sendRequest("/node/explain", params); }
+        catch (IOException e) { throw new Error("" + e); }
+
+        for (Object nodeObj : json) {
+            JSONObject nodeJson = (JSONObject) nodeObj;
+            JSONArray agentsJson = (JSONArray) nodeJson.get("agents");
+
+            printLine(nodeJson.get("id") + ": " + nodeJson.get("matching") + " of " + agentsJson.size() + " agents match, placement: " + nodeJson.get("placement"));
+            for (Object agentObj : agentsJson) {
+                JSONObject agentJson = (JSONObject) agentObj;
+                boolean best = agentJson.get("id").equals(nodeJson.get("best"));
+                printLine(agentJson.get("hostname") + " (" + agentJson.get("id") + "): " + agentJson.get("verdict") + (best ? " (best)" : ""), 1);
+            }
+
+            if (nodeJson.containsKey("blocked")) printLine("launch blocked: " + nodeJson.get("blocked"), 1);
+        }
+    }
+
+    private static String duration(Object ms) {
+        long value = ((Number) ms).longValue();
+        if (value < 1000) return value + "ms";
+        if (value < 60000) return String.format("%.1fs", value / 1000.0);
+        return String.format("%.1fm", value / 60000.0);
+    }
+
     private static void printNode(Node node, int indent) {
         printLine("id: " + node.id, indent);
         printLine("type: " + node.type.name().toLowerCase() + (node.isExternal() ? " (external)" : ""), indent);
@@ -266,12 +498,16 @@ public class NodeCli {
         printLine("resources: " + nodeResources(node), indent);
 
         if (!node.constraints.isEmpty()) printLine("constraints: " + Strings.formatMap(node.constraints), indent);
+        if (!node.preferences.isEmpty()) printLine("preferences: " + Strings.formatMap(node.preferences) + ", wait:" + node.preferenceWait, indent);
 
         if (node.executorJvmOpts != null) printLine("executor-jvm-opts: " + node.executorJvmOpts, indent);
         if (node.hadoopJvmOpts != null) printLine("hadoop-jvm-opts: " + node.hadoopJvmOpts, indent);
 
         if (!node.coreSiteOpts.isEmpty()) printLine("core-site-opts: " + Strings.formatMap(node.coreSiteOpts), indent);
         if (!node.hdfsSiteOpts.isEmpty()) printLine("hdfs-site-opts: " + Strings.formatMap(node.hdfsSiteOpts), indent);
+        if (node.dataDir != null) printLine("data-dir: " + node.dataDir + (node.dataWait != null ? ", wait:" + node.dataWait : ""), indent);
+        if (!node.volumes.isEmpty()) printLine("volumes: " + Strings.join(node.volumes, ","), indent);
+        if (node.socketDir != null) printLine("domain-socket: " + node.domainSocketPath(), indent);
 
         printLine("stickiness: " + nodeStickiness(node.stickiness), indent);
         printLine("failover: " + nodeFailover(node.failover), indent);
@@ -284,6 +520,9 @@ public class NodeCli {
         printLine("task: " + runtime.taskId, indent + 1);
         printLine("executor: " + runtime.executorId, indent + 1);
         printLine("slave: " + runtime.slaveId + " (" + runtime.hostname + ")", indent + 1);
+        if (runtime.launchTime != null) printLine("lifecycle: " + nodeLifecycle(runtime), indent + 1);
+        if (!runtime.tuning.isEmpty()) printLine("tuning: " + Strings.formatMap(runtime.tuning), indent + 1);
+        if (runtime.nativeLib != null) printLine("native-lib: " + (!runtime.nativeLib.isEmpty() ? runtime.nativeLib : "<not found>"), indent + 1);
     }
 
     private static void printCmds() {
@@ -294,6 +533,9 @@ public class NodeCli {
         printLine("start      - start node", 1);
         printLine("stop       - stop node", 1);
         printLine("remove     - remove node", 1);
+        printLine("batch      - apply node operations from file", 1);
+        printLine("lifecycle  - show node start latencies", 1);
+        printLine("explain    - explain node placement on known agents", 1);
     }
 
     private static String nodeState(Node node) {
@@ -314,7 +556,17 @@ public class NodeCli {
             return s;
         }
 
-        return "" + Node.State.STARTING.name().toLowerCase();
+        long queueTime = node.queueTime(new Date());
+        return "" + Node.State.STARTING.name().toLowerCase() + (queueTime > 0 ? ", queued " + duration(queueTime) : "");
+    }
+
+    private static String nodeLifecycle(Node.Runtime runtime) {
+        String s = "launched " + time(runtime.launchTime);
+
+        if (runtime.startingTime != null) s += ", starting +" + duration(runtime.startingTime.getTime() - runtime.launchTime.getTime());
+        if (runtime.runningTime != null && runtime.startingTime != null) s += ", running +" + duration(runtime.runningTime.getTime() - runtime.startingTime.getTime());
+
+        return s;
     }
 
     private static String nodeStickiness(Node.Stickiness stickiness) {
@@ -340,6 +592,8 @@ public class NodeCli {
 
         s += "cpus:" + node.cpus;
         s += ", mem:" + node.mem;
+        if (node.cacheMem > 0) s += ", cache-mem:" + node.cacheMem;
+        if (node.disk > 0) s += ", disk:" + node.disk;
 
         return s;
     }
@@ -349,6 +603,7 @@ public class NodeCli {
 
         s += "cpus:" + reservation.cpus;
         s += ", mem:" + reservation.mem;
+        if (reservation.disk > 0) s += ", disk:" + reservation.disk;
         s += ", ports:" + Strings.formatMap(reservation.ports);
 
         return s;
@@ -3,9 +3,7 @@ package net.elodina.mesos.hdfs;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 
 public class Nodes {
     public static Storage storage = Storage.byUri(Scheduler.$.config.storage);
@@ -13,6 +11,11 @@ public class Nodes {
     public static String frameworkId;
     private static List<Node> nodes = new ArrayList<>();
 
+    // id index: sorted for prefix lookups, seq keeps insertion order of results
+    private static TreeMap<String, Node> index = new TreeMap<>();
+    private static Map<String, Long> seqs = new HashMap<>();
+    private static long seq;
+
     private Nodes() {}
 
     public static List<Node> getNodes() { return Collections.unmodifiableList(nodes); }
@@ -40,12 +43,7 @@ public class Nodes {
         return nodes;
     }
 
-    public static Node getNode(String id) {
-        for (Node node : nodes)
-            if (node.id.equals(id)) return node;
-
-        return null;
-    }
+    public static Node getNode(String id) { return id != null ? index.get(id) : null; }
 
     /*
         Expands expr. Examples:
@@ -53,27 +51,33 @@ public class Nodes {
         - dn* (dn0, dn1, dn2 exists)    -> dn0, dn1, dn2
         - 0..3                          -> 0, 1, 2, 3
         - dn1..3                        -> dn1, dn2, dn3
+        - nn,dn1..2,dn5*                -> nn, dn1, dn2, dn5, dn50, ...
+        Duplicates are dropped. Cost is proportional to the number of resulting ids.
      */
     public static List<String> expandExpr(String expr) {
-        List<String> ids = new ArrayList<>();
+        Set<String> ids = new LinkedHashSet<>();
 
         for (String part : expr.split(",")) {
             part = part.trim();
 
-            if (part.endsWith("*")) ids.addAll(expandWildcard(expr));
+            if (part.endsWith("*")) ids.addAll(expandWildcard(part));
             else if (part.contains("..")) ids.addAll(expandRange(part));
             else ids.add(part);
         }
 
-        return ids;
+        return new ArrayList<>(ids);
     }
 
     private static List<String> expandWildcard(String expr) {
-        List<String> ids = new ArrayList<>();
-
         String prefix = expr.substring(0, expr.length() - 1);
-        for (Node node : getNodes())
-            if (node.id.startsWith(prefix)) ids.add(node.id);
+
+        SortedMap<String, Node> matched = prefix.isEmpty() ? index : index.subMap(prefix, prefix + Character.MAX_VALUE);
+        List<String> ids = new ArrayList<>(matched.keySet());
+
+        // keep nodes order
+        Collections.sort(ids, new Comparator<String>() {
+            public int compare(String x, String y) { return Long.compare(seqs.get(x), seqs.get(y)); }
+        });
 
         return ids;
     }
@@ -101,24 +105,66 @@ public class Nodes {
         return ids;
     }
 
+    /*
+        hdfs-site props for clients co-located with datanodes: fs uri of namenode & short-circuit local reads.
+        Datanodes with socket dir should share it, as client config holds single domain socket path.
+     */
+    public static Map<String, String> clientProps() {
+        Map<String, String> props = new LinkedHashMap<>();
+
+        List<Node> namenodes = getNodes(Node.Type.NAMENODE);
+        Node nn = !namenodes.isEmpty() ? namenodes.get(0) : null;
+        if (nn != null && nn.isExternal()) props.put("fs.defaultFS", nn.externalFsUri);
+        else if (nn != null && nn.runtime != null) props.put("fs.defaultFS", nn.runtime.fsUri);
+
+        Set<String> paths = new TreeSet<>();
+        for (Node node : getNodes(Node.Type.DATANODE))
+            if (node.socketDir != null) paths.add(node.domainSocketPath());
+
+        if (paths.size() > 1) throw new IllegalStateException("datanodes have different domain socket paths: " + paths);
+        if (!paths.isEmpty()) props.putAll(HdfsProcess.shortCircuitProps(paths.iterator().next()));
+
+        return props;
+    }
+
     public static Node addNode(Node node) {
         if (getNode(node.id) != null) throw new IllegalArgumentException("duplicate node");
 
 
         nodes.add(node);
+        index(node);
         return node;
     }
 
     public static void removeNode(Node node) {
+        if (index.remove(node.id) == null) return;
+        seqs.remove(node.id);
         nodes.remove(node);
     }
 
     public static void reset() {
         frameworkId = null;
         nodes.clear();
+        clearIndex();
+    }
+
+    private static void index(Node node) {
+        index.put(node.id, node);
+        seqs.put(node.id, seq++);
+    }
+
+    private static void clearIndex() {
+        index.clear();
+        seqs.clear();
+        seq = 0;
+    }
+
+    public static void save() {
+        long start = System.nanoTime();
+        storage.save();
+        Metrics.storageSave.observeSince(start);
     }
 
-    public static void save() { storage.save(); }
     public static void load() { storage.load(); }
 
     @SuppressWarnings("unchecked")
@@ -139,7 +185,10 @@ public class Nodes {
         if (json.containsKey("frameworkId")) frameworkId = (String) json.get("frameworkId");
 
         nodes.clear();
+        clearIndex();
         if (json.containsKey("nodes"))
             nodes.addAll(Node.fromJsonArray((JSONArray) json.get("nodes")));
+
+        for (Node node : nodes) index(node);
     }
 }
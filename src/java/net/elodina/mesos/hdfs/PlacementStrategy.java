@@ -0,0 +1,170 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.api.Attribute;
+import net.elodina.mesos.api.Offer;
+import net.elodina.mesos.api.Resource;
+import net.elodina.mesos.util.Strings;
+
+import java.util.*;
+
+/*
+    Chooses offer for a node among offers of a batch, that the node matches.
+    Offer with the highest score wins, ties are resolved by offer order.
+    Custom strategy could be specified by class name, having public no-arg constructor.
+ */
+public abstract class PlacementStrategy {
+    public static PlacementStrategy first() { return new First(); }
+    public static PlacementStrategy spread() { return new Spread(); }
+    public static PlacementStrategy binPack() { return new BinPack(); }
+
+    // first, spread, binpack, weighted:spread=2,binpack=1, com.company.MyStrategy
+    public static PlacementStrategy parse(String s) {
+        switch (s) {
+            case "first": return new First();
+            case "spread": return new Spread();
+            case "binpack": return new BinPack();
+        }
+
+        if (s.startsWith("weighted:")) {
+            Map<String, String> map = Strings.parseMap(s.substring("weighted:".length()));
+            if (map.isEmpty()) throw new IllegalArgumentException("no weights in " + s);
+
+            Map<PlacementStrategy, Double> weights = new LinkedHashMap<>();
+            for (String name : map.keySet()) {
+                if (name.startsWith("weighted:")) throw new IllegalArgumentException("nested weighted strategy " + name);
+
+                try { weights.put(parse(name), Double.valueOf(map.get(name))); }
+                catch (NumberFormatException e) { throw new IllegalArgumentException("invalid weight " + map.get(name)); }
+            }
+
+            return new Weighted(weights);
+        }
+
+        try {
+            return (PlacementStrategy) Class.forName(s).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IllegalArgumentException("unsupported placement strategy " + s);
+        }
+    }
+
+    // higher is better, offer is matched by node
+    public abstract double score(Node node, Offer offer, Context context);
+
+    public static String attribute(Offer offer, String name) {
+        for (Attribute attribute : offer.attributes())
+            if (attribute.name().equals(name)) return "" + attribute.value();
+        return null;
+    }
+
+    public static double resource(Offer offer, String name) {
+        double value = 0;
+        for (Resource resource : offer.resources())
+            if (resource.name().equals(name)) value += resource.value().asDouble();
+        return value;
+    }
+
+    // launched nodes of the same type by host & rack, candidate offers matched by node
+    public static class Context {
+        private final Map<String, Integer> hosts = new HashMap<>();
+        private final Map<String, Integer> racks = new HashMap<>();
+        private final List<Offer> offers;
+        private final Map<PlacementStrategy, double[]> ranges = new HashMap<>();
+
+        public Context(Node node) { this(node, Collections.<Offer>emptyList()); }
+
+        public Context(Node node, List<Offer> offers) {
+            this.offers = offers;
+
+            String rackAttribute = Scheduler.$.config.rackAttribute;
+            for (Node other : Nodes.getNodes(node.type)) {
+                if (other == node || other.runtime == null) continue;
+
+                inc(hosts, other.runtime.hostname);
+                inc(racks, other.runtime.attributes.get(rackAttribute));
+            }
+        }
+
+        // min & max score of strategy over candidate offers
+        double[] range(PlacementStrategy strategy, Node node) {
+            double[] range = ranges.get(strategy);
+            if (range != null) return range;
+
+            range = new double[] {Double.MAX_VALUE, -Double.MAX_VALUE};
+            for (Offer offer : offers) {
+                double score = strategy.score(node, offer, this);
+                range[0] = Math.min(range[0], score);
+                range[1] = Math.max(range[1], score);
+            }
+
+            ranges.put(strategy, range);
+            return range;
+        }
+
+        public int nodesOnHost(String hostname) { return count(hosts, hostname); }
+        public int nodesInRack(String rack) { return count(racks, rack); }
+
+        private static void inc(Map<String, Integer> counts, String key) { counts.put(key, count(counts, key) + 1); }
+
+        private static int count(Map<String, Integer> counts, String key) {
+            Integer count = counts.get(key);
+            return count != null ? count : 0;
+        }
+    }
+
+    // first matching offer, as offers come
+    static class First extends PlacementStrategy {
+        public double score(Node node, Offer offer, Context context) { return 0; }
+        public String toString() { return "first"; }
+    }
+
+    // fewest nodes of the same type in rack, then on host
+    static class Spread extends PlacementStrategy {
+        public double score(Node node, Offer offer, Context context) {
+            return -(context.nodesInRack(attribute(offer, Scheduler.$.config.rackAttribute)) * 1000 + context.nodesOnHost(offer.hostname()));
+        }
+
+        public String toString() { return "spread"; }
+    }
+
+    // smallest offer that fits, keeping big agents free
+    static class BinPack extends PlacementStrategy {
+        public double score(Node node, Offer offer, Context context) {
+            double cpus = resource(offer, "cpus") / Math.max(node.cpus, 0.01);
+            double mem = resource(offer, "mem") / Math.max(node.mem, 1);
+            return -(cpus + mem);
+        }
+
+        public String toString() { return "binpack"; }
+    }
+
+    /*
+        Weighted sum of other strategies scores. Scores are on different scales (spread counts nodes, binpack
+        ratios resources), so each one is normalized to 0..1 over candidate offers of context first.
+     */
+    static class Weighted extends PlacementStrategy {
+        private final Map<PlacementStrategy, Double> weights;
+
+        Weighted(Map<PlacementStrategy, Double> weights) { this.weights = weights; }
+
+        public double score(Node node, Offer offer, Context context) {
+            double score = 0;
+            for (PlacementStrategy strategy : weights.keySet())
+                score += weights.get(strategy) * normalized(strategy, node, offer, context);
+            return score;
+        }
+
+        static double normalized(PlacementStrategy strategy, Node node, Offer offer, Context context) {
+            double score = strategy.score(node, offer, context);
+            if (context == null || context.offers.isEmpty()) return score;
+
+            double[] range = context.range(strategy, node);
+            return range[1] > range[0] ? (score - range[0]) / (range[1] - range[0]) : 0;
+        }
+
+        public String toString() {
+            List<String> parts = new ArrayList<>();
+            for (PlacementStrategy strategy : weights.keySet()) parts.add(strategy + "=" + weights.get(strategy));
+            return "weighted:" + Strings.join(parts, ",");
+        }
+    }
+}
@@ -4,15 +4,19 @@ import net.elodina.mesos.api.*;
 import net.elodina.mesos.api.driver.SchedulerDriver;
 import net.elodina.mesos.api.driver.SchedulerDriverV0;
 import net.elodina.mesos.api.driver.SchedulerDriverV1;
+import net.elodina.mesos.util.Base64;
 import net.elodina.mesos.util.IO;
 import net.elodina.mesos.util.Period;
 import net.elodina.mesos.util.Strings;
 import net.elodina.mesos.util.Version;
 import org.apache.log4j.*;
 
-import java.io.File;
+import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -27,8 +31,9 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
 
     private SchedulerDriver driver;
 
+    // driver callbacks are synchronized, node batch holds the same lock, so node states don't change under it
     @Override
-    public void subscribed(SchedulerDriver driver, String id, Master master) {
+    public synchronized void subscribed(SchedulerDriver driver, String id, Master master) {
         logger.info("[subscribed] framework:" + shortId(id) + (master != null ? ", master:[" + master.toString(true) + "]" : ""));
         this.driver = driver;
 
@@ -40,16 +45,24 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
     }
 
     @Override
-    public void offers(List<Offer> offers) {
-        String s = "";
-        for (Offer offer : offers) s += "\n" + offer.toString(true);
-        logger.info("[offers]:" + s);
+    public synchronized void offers(List<Offer> offers) {
+        if (logger.isDebugEnabled()) {
+            StringBuilder s = new StringBuilder();
+            for (Offer offer : offers) s.append("\n").append(offer.toString(true));
+            logger.debug("[offers]:" + s);
+        }
+
+        Agents.observe(offers, new Date());
+        Metrics.offersReceived.add(offers.size());
+        long start = System.nanoTime();
         onOffers(offers);
+        Metrics.offersProcessing.observeSince(start);
     }
 
     @Override
-    public void status(Task.Status status) {
+    public synchronized void status(Task.Status status) {
         logger.info("[status] " + status.toString(true));
+        Metrics.statusUpdates.inc(status.state());
         onTaskStatus(status);
     }
 
@@ -66,15 +79,30 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
 
     private void onOffers(List<Offer> offers) {
         // start nodes
-        for (Offer offer : offers) {
-            String reason = acceptOffer(offer);
+        int accepted = 0;
+        int[] declined = new int[Metrics.DeclineReason.values().length];
+        String[] samples = new String[declined.length];
+
+        List<String> reasons = acceptOffers(offers);
+        for (int i = 0; i < offers.size(); i++) {
+            Offer offer = offers.get(i);
+            String reason = reasons.get(i);
 
             if (reason != null) {
-                logger.info("Declined offer " + shortId(offer.id()) + ": " + reason);
+                if (logger.isDebugEnabled()) logger.debug("Declined offer " + shortId(offer.id()) + ": " + reason);
                 driver.declineOffer(offer.id());
+
+                Metrics.DeclineReason declineReason = declineReason(reason);
+                Metrics.offersDeclined.inc(declineReason);
+                if (declined[declineReason.ordinal()]++ == 0) samples[declineReason.ordinal()] = shortId(offer.id()) + ": " + reason;
+            } else {
+                Metrics.offersAccepted.inc();
+                accepted++;
             }
         }
 
+        logger.info(offersSummary(offers.size(), accepted, declined, samples));
+
         // stop nodes
         for (Node node : Nodes.getNodes(Node.State.STOPPING)) {
             if (node.runtime == null) {
@@ -92,41 +120,206 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         Nodes.save();
     }
 
-    String acceptOffer(Offer offer) {
-        if (reconciler.isActive()) return "reconciling";
+    String acceptOffer(Offer offer) { return acceptOffers(Arrays.asList(offer)).get(0); }
+
+    // places starting nodes on offers, returns decline reasons by offer index, null for accepted offers
+    List<String> acceptOffers(List<Offer> offers) {
+        if (reconciler.isActive()) return Collections.nCopies(offers.size(), "reconciling");
 
+        Date now = new Date();
         List<Node> nodes = new ArrayList<>();
-        for (Node node : Nodes.getNodes(Node.State.STARTING))
-            if (node.runtime == null && !node.failover.isWaitingDelay(new Date()))
-                nodes.add(node);
+        for (Node node : startQueue())
+            if (!node.failover.isWaitingDelay(now)) nodes.add(node);
+
+        if (nodes.isEmpty()) return Collections.nCopies(offers.size(), "nothing to start");
 
-        if (nodes.isEmpty()) return "nothing to start";
+        // rejections are formatted only for offers declined in the end, recorded only for nodes not launched
+        Set<Node> launched = new HashSet<>();
+        List<List<Rejection>> rejections = new ArrayList<>();
+        for (int i = 0; i < offers.size(); i++) rejections.add(new ArrayList<Rejection>());
+        boolean[] accepted = new boolean[offers.size()];
 
-        List<String> reasons = new ArrayList<>();
+        Map<String, Collection<String>> otherAttributes = otherAttributes();
         for (Node node : nodes) {
-            String reason = node.matches(offer, otherAttributes());
-            if (reason != null) reasons.add("node " + node.id + ": " + reason);
-            else {
-                launchTask(node, offer);
-                return null;
+            PlacementStrategy strategy = config.placement(node.type);
+
+            List<Integer> matched = new ArrayList<>();
+            List<Offer> candidates = new ArrayList<>();
+            for (int i = 0; i < offers.size(); i++) {
+                if (accepted[i]) continue;
+                Offer offer = offers.get(i);
+
+                String reason = node.matches(offer, otherAttributes, now);
+                if (reason != null) {
+                    rejections.get(i).add(new Rejection(node, reason));
+                    continue;
+                }
+
+                matched.add(i);
+                candidates.add(offer);
+            }
+
+            int best = -1;
+            double bestPreference = 0, bestScore = 0;
+            PlacementStrategy.Context context = candidates.isEmpty() ? null : new PlacementStrategy.Context(node, candidates);
+
+            for (int i : matched) {
+                Offer offer = offers.get(i);
+                double preference = node.preferenceScore(offer, otherAttributes);
+                double score = strategy.score(node, offer, context);
+
+                // preferences first, then strategy
+                if (best == -1 || preference > bestPreference || preference == bestPreference && score > bestScore) {
+                    best = i;
+                    bestPreference = preference;
+                    bestScore = score;
+                }
+            }
+
+            if (best == -1) continue;
+
+            if (bestPreference < node.maxPreferenceScore() && node.isWaitingPreferred(now)) {
+                for (int i : matched) rejections.get(i).add(new Rejection(node, "waiting for preferred offer"));
+                continue;
+            }
+
+            LaunchLimiter limiter = config.launchLimiter(node.type);
+            if (limiter != null && !limiter.acquire(now.getTime())) {
+                for (int i : matched) rejections.get(i).add(new Rejection(node, "launch rate " + limiter + " exceeded"));
+                continue;
+            }
+
+            for (int i : matched)
+                if (i != best) rejections.get(i).add(new Rejection(node, PLACED_ON_OTHER_OFFER));
+
+            launchTask(node, offers.get(best));
+            launched.add(node);
+            accepted[best] = true;
+            otherAttributes = otherAttributes();
+        }
+
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < offers.size(); i++) {
+            if (accepted[i]) {
+                result.add(null);
+                continue;
+            }
+
+            List<String> reasons = new ArrayList<>();
+            for (Rejection rejection : rejections.get(i)) {
+                reasons.add("node " + rejection.node.id + ": " + rejection.reason);
+                if (!launched.contains(rejection.node)) recordRejection(rejection.node, offers.get(i), rejection.reason);
             }
+            result.add(Strings.join(reasons, ", "));
         }
 
-        return Strings.join(reasons, ", ");
+        return result;
+    }
+
+    static final String PLACED_ON_OTHER_OFFER = "placed on other offer";
+
+    private static class Rejection {
+        final Node node;
+        final String reason;
+
+        Rejection(Node node, String reason) {
+            this.node = node;
+            this.reason = reason;
+        }
+    }
+
+    /*
+        Starting nodes waiting for offers, in order they pick offers: namenodes first, then longest queued.
+        Queue time grows while node waits, so every node eventually gets to the head.
+        Nodes not matching any offer of a batch don't hold the ones behind them.
+     */
+    static List<Node> startQueue() {
+        List<Node> nodes = new ArrayList<>();
+        for (Node node : Nodes.getNodes(Node.State.STARTING))
+            if (node.runtime == null) nodes.add(node);
+
+        Collections.sort(nodes, START_ORDER); // stable: ties keep nodes order
+        return nodes;
+    }
+
+    static final Comparator<Node> START_ORDER = new Comparator<Node>() {
+        public int compare(Node a, Node b) {
+            if (a.type != b.type) return a.type == Node.Type.NAMENODE ? -1 : 1;
+
+            long aTime = a.startTime != null ? a.startTime.getTime() : Long.MAX_VALUE;
+            long bTime = b.startTime != null ? b.startTime.getTime() : Long.MAX_VALUE;
+            return Long.compare(aTime, bTime);
+        }
+    };
+
+    private static void recordRejection(Node node, Offer offer, String reason) {
+        Trace.add(node, new Trace.Span(Trace.OFFER, System.currentTimeMillis(), 0, shortId(offer.id()) + " (" + offer.hostname() + "): " + reason));
+        Declines.add(node, offer.hostname(), reason);
+    }
+
+    // [offers] received:3, accepted:1, declined:2 {no_match:2} no_match sample: 1a2b: node dn0: cpus < 2.0
+    static String offersSummary(int received, int accepted, int[] declined, String[] samples) {
+        StringBuilder s = new StringBuilder("[offers] received:").append(received)
+            .append(", accepted:").append(accepted)
+            .append(", declined:").append(received - accepted);
+
+        if (accepted == received) return s.toString();
+
+        String sep = " {";
+        for (Metrics.DeclineReason reason : Metrics.DeclineReason.values()) {
+            if (declined[reason.ordinal()] == 0) continue;
+            s.append(sep).append(Metrics.label(reason)).append(":").append(declined[reason.ordinal()]);
+            sep = ", ";
+        }
+        s.append("}");
+
+        // one sample per reason with details, except trivial ones
+        String sample = samples[Metrics.DeclineReason.NO_MATCH.ordinal()];
+        if (sample != null) s.append(" no_match sample: ").append(sample);
+
+        return s.toString();
+    }
+
+    private static Metrics.DeclineReason declineReason(String reason) {
+        switch (reason) {
+            case "reconciling": return Metrics.DeclineReason.RECONCILING;
+            case "nothing to start": return Metrics.DeclineReason.NOTHING_TO_START;
+            default: return Metrics.DeclineReason.NO_MATCH;
+        }
     }
 
     void launchTask(Node node, Offer offer) {
+        int launchOrder = launchOrder(node);
         node.initRuntime(offer);
+        node.runtime.launchOrder = launchOrder;
         Task task = node.newTask();
 
+        node.runtime.launchTime = new Date();
+        if (node.startTime != null) Metrics.lifecycle(node.type, Metrics.Phase.OFFER_WAIT).observe(node.startTime, node.runtime.launchTime);
+        Declines.clear(node.id);
+        Trace.add(node, new Trace.Span("launch", node.runtime.launchTime.getTime(), 0, "task " + shortId(node.runtime.taskId) + " on " + node.runtime.hostname));
+
         driver.launchTask(offer.id(), task);
         logger.info("Starting node " + node.id + " with task " + shortId(node.runtime.taskId) + " with offer " + shortId(offer.id()));
     }
 
+    // nodes of the same type, launched before this one and still starting;
+    // running time is not set for nodes running after reconciliation, so state is checked too
+    static int launchOrder(Node node) {
+        int order = 0;
+        for (Node other : Nodes.getNodes(node.type))
+            if (other != node && other.state == Node.State.STARTING && other.runtime != null && other.runtime.runningTime == null) order++;
+        return order;
+    }
+
     void onTaskStatus(Task.Status status) {
         Node node = getNodeByTaskId(status.id());
+        if (node != null) traceStatus(node, status);
 
         switch (status.state()) {
+            case STARTING:
+                onTaskStarting(node, status);
+                break;
             case RUNNING:
                 onTaskStarted(node, status);
                 break;
@@ -139,6 +332,28 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         }
     }
 
+    private void traceStatus(Node node, Task.Status status) {
+        Trace.add(node, new Trace.Span("status", System.currentTimeMillis(), 0, status.state().name().toLowerCase()));
+        if (status.data() == null || status.data().length == 0) return;
+
+        try {
+            String data = new String(status.data(), "utf-8");
+            if (config.driverV1()) data = Base64.decode(data);
+            for (Trace.Span span : Trace.parseSpans(data)) Trace.add(node, span);
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            logger.warn("Failed to parse trace spans of node " + node.id + ": " + e);
+        }
+    }
+
+    void onTaskStarting(Node node, Task.Status status) {
+        if (node == null || node.state != Node.State.STARTING || node.runtime.startingTime != null) return;
+        node.runtime.nativeLib = Executor.parseNativeLib(status.message());
+
+        Date now = new Date();
+        node.runtime.startingTime = now;
+        if (node.runtime.launchTime != null) Metrics.lifecycle(node.type, Metrics.Phase.LAUNCH).observe(node.runtime.launchTime, now);
+    }
+
     void onTaskStarted(Node node, Task.Status status) {
         boolean expectedState = node != null && Arrays.asList(Node.State.STARTING, Node.State.RUNNING, Node.State.RECONCILING).contains(node.state);
         if (!expectedState) {
@@ -151,6 +366,14 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         if (node.state == Node.State.RECONCILING)
             logger.info("Finished reconciling of node " + node.id + ", task " + shortId(node.runtime.taskId));
 
+        if (node.state == Node.State.STARTING && node.runtime.runningTime == null) {
+            Date now = new Date();
+            node.runtime.runningTime = now;
+
+            if (node.runtime.startingTime != null) Metrics.lifecycle(node.type, Metrics.Phase.OPERABLE).observe(node.runtime.startingTime, now);
+            if (node.startTime != null) Metrics.lifecycle(node.type, Metrics.Phase.TOTAL).observe(node.startTime, now);
+        }
+
         node.state = Node.State.RUNNING;
         node.registerStart(node.runtime.hostname);
     }
@@ -164,6 +387,12 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         }
 
         boolean stopping = node.state == Node.State.STOPPING;
+        if (node.type == Node.Type.NAMENODE && Mover.fail("namenode task " + status.state().name().toLowerCase()))
+            logger.info("Mover run " + Mover.id() + " failed: namenode task stopped");
+        if (node.type == Node.Type.NAMENODE) {
+            int failed = CacheAdmin.failRunning("namenode task " + status.state().name().toLowerCase());
+            if (failed > 0) logger.info(failed + " running cache command(s) failed: namenode task stopped");
+        }
 
         boolean failed = !stopping && status.state() != Task.State.FINISHED && status.state() != Task.State.KILLED;
         node.registerStop(new Date(), failed);
@@ -174,6 +403,10 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         }
 
         node.state = stopping ? Node.State.IDLE : Node.State.STARTING;
+        if (!stopping) {
+            node.startTime = new Date();
+            Trace.begin(node, "failover");
+        }
         node.runtime = null;
         node.reservation = null;
     }
@@ -202,7 +435,24 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         return null;
     }
 
-    Map<String, Collection<String>> otherAttributes() {
+    // hostname -> /rack of launched nodes, having rack attribute
+    Map<String, String> topology() {
+        Map<String, String> topology = new TreeMap<>();
+
+        for (Node node : Nodes.getNodes()) {
+            if (node.runtime == null) continue;
+
+            String rack = node.runtime.attributes.get(config.rackAttribute);
+            if (rack != null) topology.put(node.runtime.hostname, rack.startsWith("/") ? rack : "/" + rack);
+        }
+
+        return topology;
+    }
+
+    Map<String, Collection<String>> otherAttributes() { return otherAttributes(null); }
+
+    // attributes of launched nodes, except specified one
+    Map<String, Collection<String>> otherAttributes(Node except) {
         class Result {
             Map<String, Collection<String>> map = new HashMap<>();
             void add(String name, String value) {
@@ -213,7 +463,7 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         Result result = new Result();
 
         for (Node node : Nodes.getNodes()) {
-            if (node.runtime == null) continue;
+            if (node.runtime == null || node == except) continue;
 
             result.add("hostname", node.runtime.hostname);
             for (String name : node.runtime.attributes.keySet())
@@ -237,12 +487,26 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
 
     public void run() {
         initLogging();
+        final HttpServer server = new HttpServer();
+
+        // runs on System.exit & on failed startup; async appender is flushed last, so stop & fatal lines aren't lost
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                logger.info("Stopping " + Scheduler.class.getSimpleName());
+
+                if (server.isStarted())
+                    try { server.stop(); }
+                    catch (Exception e) { logger.warn("", e); }
+
+                LogManager.shutdown();
+            }
+        });
+
         config.resolveDeps();
 
         logger.info("Starting " + getClass().getSimpleName() + ":\n" + config);
         Nodes.load();
 
-        final HttpServer server = new HttpServer();
         try { server.start(); }
         catch (Exception e) { throw new RuntimeException(e); }
 
@@ -266,21 +530,14 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
             ? new SchedulerDriverV1(Scheduler.$, framework, config.master)
             : new SchedulerDriverV0(Scheduler.$, framework, config.master, cred);
 
-        Runtime.getRuntime().addShutdownHook(new Thread() {
-            public void run() {
-                logger.info("Stopping " + getClass().getSimpleName());
-
-                try { server.stop(); }
-                catch (Exception e) { logger.warn("", e); }
-            }
-        });
-
         boolean stopped;
         try { stopped = driver.run(); }
         catch (Exception e) { throw new Error(e); }
         System.exit(stopped ? 0 : 1);
     }
 
+    static final int LOG_BUFFER_SIZE = 1024;
+
     void initLogging() {
         System.setProperty("org.eclipse.jetty.util.log.class", JettyLog4jLogger.class.getName());
         BasicConfigurator.resetConfiguration();
@@ -295,7 +552,13 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         Logger.getLogger("org.I0Itec.zkclient").setLevel(Level.WARN);
 
         PatternLayout layout = new PatternLayout("%d [%t] %p %c{2} - %m%n");
-        root.addAppender(new ConsoleAppender(layout));
+
+        // driver & http threads never wait for console: events are dropped & counted when buffer is full
+        AsyncAppender async = new AsyncAppender();
+        async.setBufferSize(LOG_BUFFER_SIZE);
+        async.setBlocking(false);
+        async.addAppender(new ConsoleAppender(layout));
+        root.addAppender(async);
     }
 
     public static class JettyLog4jLogger implements org.eclipse.jetty.util.log.Logger {
@@ -308,15 +571,15 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         public boolean isDebugEnabled() { return logger.isDebugEnabled(); }
         public void setDebugEnabled(boolean enabled) { logger.setLevel(enabled ? Level.DEBUG : Level.INFO); }
 
-        public void info(String s, Object... args) { logger.info(format(s, args)); }
+        public void info(String s, Object... args) { if (logger.isInfoEnabled()) logger.info(format(s, args)); }
         public void info(String s, Throwable t) { logger.info(s, t); }
         public void info(Throwable t) { logger.info("", t); }
 
-        public void debug(String s, Object... args) { logger.debug(format(s, args)); }
+        public void debug(String s, Object... args) { if (logger.isDebugEnabled()) logger.debug(format(s, args)); }
         public void debug(String msg, Throwable th) { logger.debug(msg, th); }
         public void debug(Throwable t) { logger.debug("", t); }
 
-        public void warn(String s, Object... args) { logger.warn(format(s, args)); }
+        public void warn(String s, Object... args) { if (logger.isEnabledFor(Level.WARN)) logger.warn(format(s, args)); }
         public void warn(String msg, Throwable th) { logger.warn(msg, th); }
         public void warn(Throwable t) { logger.warn("", t); }
 
@@ -325,18 +588,20 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         public org.eclipse.jetty.util.log.Logger getLogger(String name) { return new JettyLog4jLogger(Logger.getLogger(name)); }
         public String getName() { return logger.getName(); }
 
-        private static String format(String s, Object ... args) {
+        static String format(String s, Object ... args) {
             // {} text {} text ...
-            String result = "";
+            StringBuilder result = new StringBuilder(s.length() + 16 * args.length);
 
-            int i = 0;
-            for (String text : s.split("\\{\\}")) {
-                result += text;
-                if (args.length > i) result += args[i];
+            int i = 0, from = 0, idx;
+            while ((idx = s.indexOf("{}", from)) != -1) {
+                result.append(s, from, idx);
+                if (args.length > i) result.append(args[i]);
                 i++;
+                from = idx + 2;
             }
+            result.append(s, from, s.length());
 
-            return result;
+            return result.toString();
         }
     }
 
@@ -353,9 +618,23 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
         public File hadoop;
         public File jre;
 
-        public int apiPort() {
+        public String jarHash;
+        public String hadoopHash;
+        public String jreHash;
+
+        // artifact downloads: optional dedicated connector, concurrency cap, per client rate (Kb/s, 0 - unlimited)
+        public String downloadApi;
+        public int maxDownloads = 8;
+        public int downloadRate;
+
+        public int apiPort() { return port(api); }
+        public int downloadApiPort() { return port(downloadApi); }
+
+        public String artifactApi() { return downloadApi != null ? downloadApi : api; }
+
+        private static int port(String url) {
             try {
-                int port = new URI(api).getPort();
+                int port = new URI(url).getPort();
                 return port == -1 ? 80 : port;
             } catch (URISyntaxException e) {
                 throw new IllegalStateException(e);
@@ -374,6 +653,20 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
 
         public boolean driverV1() { return driver.equals("v1"); }
 
+        public String rackAttribute = "rack"; // agent attribute, defining rack of HDFS topology
+        public String nativeLibDir; // agent dir with native hadoop libs, used if distribution has none
+
+        public PlacementStrategy namenodePlacement = PlacementStrategy.first();
+        public PlacementStrategy datanodePlacement = PlacementStrategy.spread();
+
+        public PlacementStrategy placement(Node.Type type) { return type == Node.Type.NAMENODE ? namenodePlacement : datanodePlacement; }
+
+        // task launch rate limits, null - unlimited
+        public LaunchLimiter namenodeLaunchRate;
+        public LaunchLimiter datanodeLaunchRate;
+
+        public LaunchLimiter launchLimiter(Node.Type type) { return type == Node.Type.NAMENODE ? namenodeLaunchRate : datanodeLaunchRate; }
+
         void resolveDeps() {
             hadoop = IO.findFile(new File("."), hadoopMask);
             if (hadoop == null) throw new Cli.Error(hadoopMask + " not found in current dir");
@@ -386,6 +679,31 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
                 jre = IO.findFile(new File("."), jreMask);
                 if (jre == null) throw new Cli.Error(jreMask + " not found in current dir");
             }
+
+            hadoopHash = sha256(hadoop);
+            jarHash = sha256(jar);
+            if (jre != null) jreHash = sha256(jre);
+        }
+
+        // <hash>/<name> if hash is known, <name> otherwise
+        public String artifactPath(File file, String hash) {
+            return (hash != null ? hash + "/" : "") + file.getName();
+        }
+
+        static String sha256(File file) {
+            MessageDigest digest;
+            try { digest = MessageDigest.getInstance("SHA-256"); }
+            catch (NoSuchAlgorithmException e) { throw new IllegalStateException(e); }
+
+            try (InputStream stream = new DigestInputStream(new FileInputStream(file), digest)) {
+                byte[] buffer = new byte[64 * 1024];
+                //noinspection StatementWithEmptyBody
+                while (stream.read(buffer) != -1);
+            } catch (IOException e) {
+                throw new IOError(e);
+            }
+
+            return Strings.formatHex(digest.digest());
         }
 
         private void checkHadoopVersion() {
@@ -407,15 +725,22 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
             String s = "";
 
             s += "api: " + api;
+            s += "\ndownloads: " + (downloadApi != null ? "api:" + downloadApi + ", " : "") + "max:" + maxDownloads + ", rate:" + (downloadRate > 0 ? downloadRate + "Kb/s" : "<unlimited>");
             s += "\nfiles: jar:" + jar + ", hadoop:" + hadoop + (jre != null ? ", jre:" + jre : "");
+            if (jarHash != null) s += "\nhashes: jar:" + shortHash(jarHash) + ", hadoop:" + shortHash(hadoopHash) + (jreHash != null ? ", jre:" + shortHash(jreHash) : "");
 
             s += "\nmesos: driver:" + driver + ", master:" + master + ", user:" + (user == null ? "<default>" : user);
             s += ", principal:" + (principal == null ? "<none>" : principal) + ", secret:" + (secret == null ? "<none>" : "******");
 
             s += "\nframework: name:" + frameworkName + ", role:" + frameworkRole + ", timeout:" + frameworkTimeout;
+            s += "\nplacement: namenode:" + namenodePlacement + ", datanode:" + datanodePlacement + ", rack-attribute:" + rackAttribute;
+            s += "\nnative-lib-dir: " + (nativeLibDir != null ? nativeLibDir : "<none>");
+            s += "\nlaunch rate: namenode:" + (namenodeLaunchRate != null ? namenodeLaunchRate : "<unlimited>") + ", datanode:" + (datanodeLaunchRate != null ? datanodeLaunchRate : "<unlimited>");
 
             return s;
         }
+
+        private static String shortHash(String hash) { return hash.substring(0, Math.min(12, hash.length())); }
     }
 
     public static class Reconciler {
@@ -452,6 +777,7 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
             }
 
             driver.reconcileTasks(Collections.<String>emptyList());
+            Metrics.reconcileRounds.inc();
         }
 
         public void proceed(SchedulerDriver driver, Date now) {
@@ -471,6 +797,8 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
                     driver.killTask(node.runtime.taskId);
                     node.runtime = null;
                     node.state = Node.State.STARTING;
+                    node.startTime = now;
+                    Trace.begin(node, "reconcile timeout");
                 }
 
                 tries = 0;
@@ -486,7 +814,10 @@ public class Scheduler implements net.elodina.mesos.api.Scheduler {
                 ids.add(node.runtime.taskId);
             }
 
-            if (!ids.isEmpty()) driver.reconcileTasks(ids);
+            if (!ids.isEmpty()) {
+                driver.reconcileTasks(ids);
+                Metrics.reconcileRounds.inc();
+            }
         }
     }
 }
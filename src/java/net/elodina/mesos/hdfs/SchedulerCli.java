@@ -34,6 +34,17 @@ public class SchedulerCli {
         parser.accepts("hadoop", "Hadoop archive mask (hadoop-.*gz). Default - " + config.hadoopMask + ".").withRequiredArg().ofType(String.class);
         parser.accepts("jre", "JRE archive mask (jre*.zip). Default - none.").withRequiredArg().ofType(String.class);
 
+        parser.accepts("download-api", "Binding host:port for dedicated artifact download connector, serving only /jar/, /hadoop/ & /jre/. Default - none (served by api).").withRequiredArg().ofType(String.class);
+        parser.accepts("max-downloads", "Max concurrent artifact downloads. Extra ones wait on download-api, are rejected with 503 on api. Default - " + config.maxDownloads + ".").withRequiredArg().ofType(Integer.class);
+        parser.accepts("download-rate", "Max artifact download rate per client in Kb/s. Default - 0 (unlimited).").withRequiredArg().ofType(Integer.class);
+
+        parser.accepts("namenode-placement", "Namenode placement strategy (first, spread, binpack, weighted:spread=2,binpack=1 or class name). Default - " + config.namenodePlacement + ".").withRequiredArg().ofType(String.class);
+        parser.accepts("datanode-placement", "Datanode placement strategy. Default - " + config.datanodePlacement + ".").withRequiredArg().ofType(String.class);
+        parser.accepts("namenode-launch-rate", "Max namenode task launches (<count>/<period>, e.g. 1/1m). Default - unlimited.").withRequiredArg().ofType(String.class);
+        parser.accepts("datanode-launch-rate", "Max datanode task launches (<count>/<period>, e.g. 10/1m), staggering namenode registrations & block reports. Default - unlimited.").withRequiredArg().ofType(String.class);
+        parser.accepts("native-lib-dir", "Agent dir with native hadoop libs (libhadoop.so), searched before hadoop distribution libs. Default - none.").withRequiredArg().ofType(String.class);
+        parser.accepts("rack-attribute", "Agent attribute, defining rack in HDFS topology. Default - " + config.rackAttribute + ".").withRequiredArg().ofType(String.class);
+
         if (help) {
             printLine("Generic Options");
 
@@ -110,6 +121,35 @@ public class SchedulerCli {
         String jre = (String) options.valueOf("jre");
         if (jre == null) jre = defaults.get("jre");
 
+
+        String downloadApi = (String) options.valueOf("download-api");
+        if (downloadApi == null) downloadApi = defaults.get("download-api");
+
+        Integer maxDownloads = (Integer) options.valueOf("max-downloads");
+        if (maxDownloads == null && defaults.containsKey("max-downloads"))
+            try { maxDownloads = Integer.valueOf(defaults.get("max-downloads")); }
+            catch (NumberFormatException e) { throw new Error("invalid max-downloads"); }
+        if (maxDownloads != null && maxDownloads <= 0) throw new Error("invalid max-downloads");
+
+        Integer downloadRate = (Integer) options.valueOf("download-rate");
+        if (downloadRate == null && defaults.containsKey("download-rate"))
+            try { downloadRate = Integer.valueOf(defaults.get("download-rate")); }
+            catch (NumberFormatException e) { throw new Error("invalid download-rate"); }
+        if (downloadRate != null && downloadRate < 0) throw new Error("invalid download-rate");
+
+
+        PlacementStrategy namenodePlacement = placement(options, defaults, "namenode-placement");
+        PlacementStrategy datanodePlacement = placement(options, defaults, "datanode-placement");
+
+        LaunchLimiter namenodeLaunchRate = launchRate(options, defaults, "namenode-launch-rate");
+        LaunchLimiter datanodeLaunchRate = launchRate(options, defaults, "datanode-launch-rate");
+
+        String nativeLibDir = (String) options.valueOf("native-lib-dir");
+        if (nativeLibDir == null) nativeLibDir = defaults.get("native-lib-dir");
+
+        String rackAttribute = (String) options.valueOf("rack-attribute");
+        if (rackAttribute == null) rackAttribute = defaults.get("rack-attribute");
+
         config.api = api;
         if (storage != null) config.storage = storage;
 
@@ -127,9 +167,38 @@ public class SchedulerCli {
         if (hadoop != null) config.hadoopMask = hadoop;
         if (jre != null) config.jreMask = jre;
 
+        config.downloadApi = downloadApi;
+        if (maxDownloads != null) config.maxDownloads = maxDownloads;
+        if (downloadRate != null) config.downloadRate = downloadRate;
+
+        if (namenodePlacement != null) config.namenodePlacement = namenodePlacement;
+        if (datanodePlacement != null) config.datanodePlacement = datanodePlacement;
+        if (rackAttribute != null) config.rackAttribute = rackAttribute;
+        config.nativeLibDir = nativeLibDir;
+        if (namenodeLaunchRate != null) config.namenodeLaunchRate = namenodeLaunchRate;
+        if (datanodeLaunchRate != null) config.datanodeLaunchRate = datanodeLaunchRate;
+
         Scheduler.$.run();
     }
 
+    private static PlacementStrategy placement(OptionSet options, Map<String, String> defaults, String option) {
+        String value = (String) options.valueOf(option);
+        if (value == null) value = defaults.get(option);
+        if (value == null) return null;
+
+        try { return PlacementStrategy.parse(value); }
+        catch (IllegalArgumentException e) { throw new Error("invalid " + option + ": " + e.getMessage()); }
+    }
+
+    private static LaunchLimiter launchRate(OptionSet options, Map<String, String> defaults, String option) {
+        String value = (String) options.valueOf(option);
+        if (value == null) value = defaults.get(option);
+        if (value == null) return null;
+
+        try { return new LaunchLimiter(value); }
+        catch (IllegalArgumentException e) { throw new Error("invalid " + option + ": " + e.getMessage()); }
+    }
+
     private static Map<String, String> defaults() {
         Map<String, String> defaults = new HashMap<>();
 
@@ -40,9 +40,11 @@ public abstract class Storage {
 
         @Override
         public void save() {
-            JSONObject json = Nodes.toJson();
-            try { IO.writeFile(file, "" + json); }
+            String content = "" + Nodes.toJson();
+            try { IO.writeFile(file, content); }
             catch (IOException e) { throw new IOError(e); }
+
+            Metrics.storageSaveBytes.add(content.getBytes(Charset.forName("utf-8")).length);
         }
 
         @Override
@@ -82,7 +84,9 @@ public abstract class Storage {
             ZkClient client = client();
             try {
                 client.createPersistent(path, true);
-                client.writeData(path, Nodes.toJson().toString().getBytes(Charset.forName("utf-8")));
+                byte[] bytes = Nodes.toJson().toString().getBytes(Charset.forName("utf-8"));
+                client.writeData(path, bytes);
+                Metrics.storageSaveBytes.add(bytes.length);
             } finally { client.close(); }
         }
 
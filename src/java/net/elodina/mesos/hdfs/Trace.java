@@ -0,0 +1,176 @@
+package net.elodina.mesos.hdfs;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import java.util.*;
+
+/*
+    Trace of a node start attempt: api request, evaluated offers, task launch and executor steps.
+    Executor spans come back to scheduler in task status data.
+    Traces are kept in memory only, last MAX_TRACES per node.
+    Offer spans are capped separately (last MAX_OFFER_SPANS), so long offer waits don't crowd out launch,
+    status & executor spans, which are always kept.
+ */
+public class Trace {
+    static final int MAX_TRACES = 5;
+    static final int MAX_OFFER_SPANS = 50;
+    static final String OFFER = "offer";
+
+    private static final Map<String, LinkedList<Trace>> traces = new HashMap<>();
+
+    public final String reason;
+    public final Date start;
+    private LinkedList<Span> spans = new LinkedList<>();
+    private int offers;
+    private int droppedOffers;
+
+    public Trace(String reason) { this(reason, new Date()); }
+    public Trace(String reason, Date start) {
+        this.reason = reason;
+        this.start = start;
+    }
+
+    public synchronized void add(Span span) {
+        spans.add(span);
+        if (!span.name.equals(OFFER) || ++offers <= MAX_OFFER_SPANS) return;
+
+        // evict oldest offer span
+        for (Iterator<Span> i = spans.iterator(); i.hasNext(); )
+            if (i.next().name.equals(OFFER)) { i.remove(); break; }
+
+        offers--;
+        droppedOffers++;
+    }
+
+    public synchronized List<Span> getSpans() { return new ArrayList<>(spans); }
+
+    public synchronized int droppedOffers() { return droppedOffers; }
+
+    @SuppressWarnings("unchecked")
+    public synchronized JSONObject toJson() {
+        JSONObject json = new JSONObject();
+
+        json.put("reason", reason);
+        json.put("start", start.getTime());
+
+        JSONArray spansJson = new JSONArray();
+        for (Span span : spans) {
+            JSONObject spanJson = span.toJson();
+            spanJson.put("offset", span.time - start.getTime());
+            spansJson.add(spanJson);
+        }
+        json.put("spans", spansJson);
+        if (droppedOffers > 0) json.put("droppedOffers", droppedOffers);
+
+        return json;
+    }
+
+    // starts new trace for node
+    public static Trace begin(Node node, String reason) {
+        Trace trace = new Trace(reason);
+
+        synchronized (traces) {
+            LinkedList<Trace> nodeTraces = traces.get(node.id);
+            if (nodeTraces == null) {
+                nodeTraces = new LinkedList<>();
+                traces.put(node.id, nodeTraces);
+            }
+
+            nodeTraces.add(trace);
+            if (nodeTraces.size() > MAX_TRACES) nodeTraces.removeFirst();
+        }
+
+        return trace;
+    }
+
+    // current trace of node or null
+    public static Trace current(Node node) {
+        synchronized (traces) {
+            LinkedList<Trace> nodeTraces = traces.get(node.id);
+            return nodeTraces != null ? nodeTraces.getLast() : null;
+        }
+    }
+
+    public static void add(Node node, Span span) {
+        Trace trace = current(node);
+        if (trace != null) trace.add(span);
+    }
+
+    public static List<Trace> forNode(String id) {
+        synchronized (traces) {
+            LinkedList<Trace> nodeTraces = traces.get(id);
+            return nodeTraces != null ? new ArrayList<>(nodeTraces) : Collections.<Trace>emptyList();
+        }
+    }
+
+    public static void remove(String id) {
+        synchronized (traces) { traces.remove(id); }
+    }
+
+    public static void reset() {
+        synchronized (traces) { traces.clear(); }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static String formatSpans(List<Span> spans) {
+        JSONArray json = new JSONArray();
+        for (Span span : spans) json.add(span.toJson());
+        return "" + json;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static List<Span> parseSpans(String s) {
+        JSONArray json;
+        try { json = (JSONArray) new JSONParser().parse(s); }
+        catch (ParseException e) { throw new IllegalArgumentException(e); }
+
+        List<Span> spans = new ArrayList<>();
+        for (JSONObject spanJson : (List<JSONObject>) json) spans.add(new Span(spanJson));
+        return spans;
+    }
+
+    public static class Span {
+        public String name;
+        public long time;
+        public long duration;
+        public String note;
+
+        public Span(String name, long time, long duration, String note) {
+            this.name = name;
+            this.time = time;
+            this.duration = duration;
+            this.note = note;
+        }
+
+        // span from start till now
+        public Span(String name, long start) { this(name, start, System.currentTimeMillis() - start, null); }
+
+        public Span(JSONObject json) { fromJson(json); }
+
+        public Span note(String note) { this.note = note; return this; }
+
+        @SuppressWarnings("unchecked")
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+
+            json.put("name", name);
+            json.put("time", time);
+            json.put("duration", duration);
+            if (note != null) json.put("note", note);
+
+            return json;
+        }
+
+        public void fromJson(JSONObject json) {
+            name = (String) json.get("name");
+            time = ((Number) json.get("time")).longValue();
+            duration = ((Number) json.get("duration")).longValue();
+            note = (String) json.get("note");
+        }
+
+        public String toString() { return name + " " + duration + "ms" + (note != null ? " (" + note + ")" : ""); }
+    }
+}
@@ -0,0 +1,53 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.api.Offer;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AgentsTest extends HdfsMesosTestCase {
+    @Test
+    public void observe() {
+        Date now = new Date();
+        Agents.observe(Arrays.asList(new Offer("slaveId:s0, hostname:h0, resources:[cpus:1]"), new Offer("slaveId:s1, hostname:h1, resources:[cpus:2]")), new Date(now.getTime() - 60000));
+        Agents.observe(Arrays.asList(new Offer("slaveId:s0, hostname:h0, resources:[cpus:0.5], attributes:[rack=r1]")), now);
+
+        List<Agents.Agent> agents = Agents.getAgents();
+        assertEquals(2, agents.size());
+
+        // most recent first
+        Agents.Agent agent = agents.get(0);
+        assertEquals("s0", agent.id);
+        assertEquals("h0", agent.hostname());
+        assertEquals(2, agent.offers());
+        assertEquals(2.0, agent.offersPerMinute(now), 0.001);
+        assertEquals("r1", agent.attributes().get("rack"));
+
+        JSONObject json = agent.toJson(now);
+        assertEquals("cpus:0.5", json.get("resources"));
+        assertEquals(now.getTime(), json.get("lastSeen"));
+
+        // no slave id
+        Agents.observe(Arrays.asList(new Offer("hostname:h2")), now);
+        assertNotNull(Agents.getAgent("h2"));
+    }
+
+    @Test
+    public void eviction() {
+        Date now = new Date();
+        for (int i = 0; i < Agents.MAX_AGENTS; i++)
+            Agents.observe(Arrays.asList(new Offer("slaveId:s" + i + ", hostname:h" + i)), now);
+
+        // s0 is offered again, s1 is least recent
+        Agents.observe(Arrays.asList(new Offer("slaveId:s0, hostname:h0"), new Offer("slaveId:new, hostname:new")), now);
+
+        assertEquals(Agents.MAX_AGENTS, Agents.getAgents().size());
+        assertNotNull(Agents.getAgent("s0"));
+        assertNull(Agents.getAgent("s1"));
+    }
+}
@@ -1,14 +1,21 @@
 package net.elodina.mesos.hdfs;
 
+import net.elodina.mesos.api.Offer;
+import net.elodina.mesos.util.IO;
 import net.elodina.mesos.util.Strings;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 
 import static org.junit.Assert.*;
 
@@ -113,6 +120,100 @@ public class CliTest extends HdfsMesosTestCase {
         assertEquals(Node.State.STOPPING, nn.state);
     }
 
+    @Test
+    public void node_batch() throws IOException {
+        Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+
+        File file = File.createTempFile(CliTest.class.getSimpleName(), null);
+        try {
+            IO.writeFile(file,
+                "# datanodes\n" +
+                "add dn0..1 --type=datanode --mem=2048\n" +
+                "update dn0 --hadoop-jvm-opts=\"-Xmx1g -Xms1g\"\n" +
+                "start nn\n"
+            );
+
+            exec("node batch " + file.getPath());
+            assertOutContains("batch applied:");
+            assertOutContains("add dn0, dn1");
+
+            assertEquals(2048, Nodes.getNode("dn1").mem);
+            assertEquals("-Xmx1g -Xms1g", Nodes.getNode("dn0").hadoopJvmOpts);
+            assertEquals(Node.State.STARTING, Nodes.getNode("nn").state);
+
+            // invalid op fails whole batch
+            IO.writeFile(file, "add dn2 --type=datanode\nremove dn5\n");
+            try { exec("node batch " + file.getPath()); fail(); }
+            catch (Cli.Error e) { assertTrue(e.getMessage(), e.getMessage().contains("op 1: node not found")); }
+            assertNull(Nodes.getNode("dn2"));
+        } finally {
+            assertTrue(file.delete());
+        }
+    }
+
+    @Test
+    public void node_lifecycle() {
+        Metrics.reset();
+        Metrics.lifecycle(Node.Type.DATANODE, Metrics.Phase.TOTAL).observe(new Date(0), new Date(90000));
+
+        exec("node lifecycle");
+        assertOutContains("datanode:");
+        assertOutContains("total      count:1, p50:1.5m");
+    }
+
+    @Test
+    public void node_explain() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.cpus = 1;
+        Agents.observe(Arrays.asList(new Offer("slaveId:s0, hostname:h0, resources:[cpus:0.5]"), new Offer("slaveId:s1, hostname:h1, resources:[cpus:2;mem:2048;ports:0..10]")), new Date());
+
+        exec("node explain nn");
+        assertOutContains("nn: 1 of 2 agents match, placement: first");
+        assertOutContains("h1 (s1): ok (best)");
+        assertOutContains("h0 (s0): cpus < 1.0");
+    }
+
+    @Test
+    public void cache() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.RUNNING;
+
+        exec("cache directive-add /tables/t0 --pool=hot");
+        assertOutContains("commands requested:");
+        assertOutContains("-addDirective -path /tables/t0 -pool hot: pending");
+
+        CacheAdmin.Command command = CacheAdmin.take().get(0);
+        CacheAdmin.report(command.id, true, "Added cache directive 1");
+
+        exec("cache status");
+        assertOutContains("finished");
+        assertOutContains("Added cache directive 1");
+
+        exec("help cache directive-add");
+        assertOutContains("--replication");
+    }
+
+    @Test
+    public void parseBatch() {
+        JSONArray ops = NodeCli.parseBatch("add dn0..1 --type datanode --core-site-opts=a=1\n\n# comment\nstop dn*");
+        assertEquals(2, ops.size());
+
+        JSONObject add = (JSONObject) ops.get(0);
+        assertEquals("add", add.get("op"));
+        assertEquals("dn0..1", add.get("node"));
+        assertEquals("datanode", add.get("type"));
+        assertEquals("a=1", add.get("coreSiteOpts"));
+
+        try { NodeCli.parseBatch("start"); fail(); }
+        catch (IllegalArgumentException e) { assertTrue(e.getMessage(), e.getMessage().contains("line 1")); }
+
+        // options are validated as of the cmd
+        for (String line : Arrays.asList("update dn0 --cpuz=2", "update dn0 --mem=a", "add dn0 --mem=1024", "start dn0 --mem=1024", "remove dn0 x", "restart dn0")) {
+            try { NodeCli.parseBatch("# comment\n" + line); fail(line); }
+            catch (IllegalArgumentException e) { assertTrue(e.getMessage(), e.getMessage().startsWith("line 2: ")); }
+        }
+    }
+
     private void exec(String cmd) {
         out.reset();
         Cli.handle(new ArrayList<>(Arrays.asList(cmd.split(" "))));
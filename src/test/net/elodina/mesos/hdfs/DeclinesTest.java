@@ -0,0 +1,44 @@
+package net.elodina.mesos.hdfs;
+
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeclinesTest extends HdfsMesosTestCase {
+    @Test
+    public void add() {
+        Declines declines = new Declines();
+        declines.add(0, "h0", "cpus < 2.0");
+        declines.add(1, "h0", "mem < 1024");
+        declines.add(2, "h1", "cpus < 2.0");
+
+        assertEquals(3, declines.size());
+        assertEquals(2, (int) declines.byCategory().get("cpus"));
+        assertEquals(1, (int) declines.byCategory().get("mem"));
+        assertEquals(2, (int) declines.byAgent().get("h0"));
+
+        // old entries are evicted from counts
+        for (int i = 0; i < Declines.MAX_ENTRIES; i++) declines.add(i, "h2", "no namenode");
+        assertEquals(Declines.MAX_ENTRIES, declines.size());
+        assertEquals(1, declines.byCategory().size());
+        assertEquals(Declines.MAX_ENTRIES, (int) declines.byCategory().get("namenode"));
+        assertEquals(1, declines.byAgent().size());
+
+        JSONObject json = declines.toJson();
+        assertEquals(Declines.MAX_ENTRIES + 3L, json.get("total"));
+        assertEquals("no namenode", ((JSONObject) json.get("last")).get("reason"));
+    }
+
+    @Test
+    public void category() {
+        assertEquals("cpus", Declines.category("cpus < 2.0"));
+        assertEquals("mem", Declines.category("mem < 1024"));
+        assertEquals("namenode", Declines.category("no namenode"));
+        assertEquals("namenode", Declines.category("no running or external namenode"));
+        assertEquals("constraint:rack", Declines.category("no rack attribute"));
+        assertEquals("constraint:hostname", Declines.category("hostname doesn't match like:master"));
+        assertEquals("stickiness", Declines.category("hostname != stickiness hostname"));
+        assertEquals("other", Declines.category("unknown"));
+    }
+}
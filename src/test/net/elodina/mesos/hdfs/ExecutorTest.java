@@ -0,0 +1,68 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.util.IO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ExecutorTest {
+    private File dir;
+
+    @Before
+    public void before() throws IOException {
+        dir = File.createTempFile(ExecutorTest.class.getSimpleName(), null);
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void after() throws IOException {
+        IO.delete(dir);
+    }
+
+    @Test
+    public void findNativeLibDir() throws IOException {
+        File dist = new File(dir, "lib/native");
+        File host = new File(dir, "host");
+        assertTrue(dist.mkdirs());
+        assertTrue(host.mkdirs());
+
+        // no libs
+        IO.writeFile(new File(dist, "libhdfs.so"), "");
+        assertNull(Executor.findNativeLibDir(Arrays.asList(host, dist, new File(dir, "none"))));
+
+        // distribution dir
+        IO.writeFile(new File(dist, "libhadoop.so.1.0.0"), "");
+        assertEquals(dist, Executor.findNativeLibDir(Arrays.asList(host, dist, new File(dir, "none"))));
+
+        // configured dir goes first
+        IO.writeFile(new File(host, "libhadoop.so"), "");
+        assertEquals(host, Executor.findNativeLibDir(Arrays.asList(host, dist, new File(dir, "none"))));
+    }
+
+    @Test(timeout = 5000)
+    public void execWithTimeout() throws IOException, InterruptedException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertEquals(0, (int) Executor.execWithTimeout(new ProcessBuilder("sh", "-c", "echo ok; echo err >&2"), 5000, output));
+        assertEquals("ok\nerr\n", output.toString("utf-8"));
+
+        // hanging process is destroyed
+        assertNull(Executor.execWithTimeout(new ProcessBuilder("sleep", "60"), 100, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void formatNativeLib_parseNativeLib() {
+        assertEquals("/opt/hadoop/lib/native", Executor.parseNativeLib(Executor.formatNativeLib(new File("/opt/hadoop/lib/native"))));
+        assertEquals("", Executor.parseNativeLib(Executor.formatNativeLib(null)));
+
+        assertNull(Executor.parseNativeLib(null));
+        assertNull(Executor.parseNativeLib("process exited with 1"));
+    }
+}
@@ -30,6 +30,11 @@ public class HdfsMesosTestCase extends MesosTestCase {
         assertTrue(storageFile.delete());
         Nodes.storage = Storage.file(storageFile);
         Nodes.reset();
+        Trace.reset();
+        Declines.reset();
+        Agents.reset();
+        Mover.reset();
+        CacheAdmin.reset();
 
         Scheduler.Config config = Scheduler.$.config;
         config.api = "http://localhost:" + Net.findAvailPort();
@@ -48,6 +53,10 @@ public class HdfsMesosTestCase extends MesosTestCase {
         Scheduler.Config config = Scheduler.$.config;
         config.api = null;
         config.jar = null;
+        config.namenodePlacement = PlacementStrategy.first();
+        config.datanodePlacement = PlacementStrategy.spread();
+        config.namenodeLaunchRate = null;
+        config.datanodeLaunchRate = null;
 
         Nodes.storage.clear();
     }
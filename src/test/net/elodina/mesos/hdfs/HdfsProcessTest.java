@@ -0,0 +1,148 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.util.IO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class HdfsProcessTest {
+    private File dir;
+
+    @Before
+    public void before() throws IOException {
+        dir = File.createTempFile(HdfsProcessTest.class.getSimpleName(), null);
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void after() throws IOException {
+        IO.delete(dir);
+    }
+
+    @Test
+    public void blockReportDelay() {
+        assertEquals(0, HdfsProcess.blockReportDelay(0));
+        assertEquals(2 * HdfsProcess.BLOCK_REPORT_DELAY_STEP, HdfsProcess.blockReportDelay(2));
+        assertEquals(HdfsProcess.MAX_BLOCK_REPORT_DELAY, HdfsProcess.blockReportDelay(100000));
+    }
+
+    @Test
+    public void duReserved() {
+        assertEquals(0, HdfsProcess.duReserved(dir, 0));
+
+        long total = dir.getTotalSpace();
+        assertEquals(total - 1024 * 1024, HdfsProcess.duReserved(new File(dir, "missing/data"), 1));
+        assertEquals(0, HdfsProcess.duReserved(dir, total));
+    }
+
+    @Test
+    public void duReserved_volumes() {
+        long total = dir.getTotalSpace();
+        assertEquals(0, HdfsProcess.duReserved(Collections.<File>emptyList(), 2));
+        assertEquals(0, HdfsProcess.duReserved(Arrays.asList(new File(dir, "v0"), new File(dir, "v1")), 0));
+
+        // disk is split between volumes
+        assertEquals(total - 1024 * 1024, HdfsProcess.duReserved(Arrays.asList(new File(dir, "v0"), new File(dir, "v1")), 2));
+    }
+
+    @Test
+    public void shortCircuitProps_formatPropsXml() {
+        Map<String, String> props = HdfsProcess.shortCircuitProps("/var/run/hdfs-sockets/dn._PORT", new File("/opt/hadoop/lib/native"));
+        assertEquals("{dfs.client.read.shortcircuit=true, dfs.domain.socket.path=/var/run/hdfs-sockets/dn._PORT}", "" + props);
+
+        assertEquals(
+            "<configuration>\n" +
+            "<property>\n  <name>dfs.client.read.shortcircuit</name>\n  <value>true</value>\n</property>\n" +
+            "<property>\n  <name>dfs.domain.socket.path</name>\n  <value>/var/run/hdfs-sockets/dn._PORT</value>\n</property>\n" +
+            "</configuration>",
+            HdfsProcess.formatPropsXml(props)
+        );
+
+        // no native libs
+        assertTrue(HdfsProcess.shortCircuitProps("/var/run/hdfs-sockets/dn._PORT", null).isEmpty());
+    }
+
+    @Test
+    public void tuningProp() {
+        assertEquals("dfs.datanode.max.transfer.threads", HdfsProcess.tuningProp("dfs.datanode.max.transfer.threads", false));
+        assertEquals("dfs.datanode.max.xcievers", HdfsProcess.tuningProp("dfs.datanode.max.transfer.threads", true));
+        assertEquals("dfs.datanode.handler.count", HdfsProcess.tuningProp("dfs.datanode.handler.count", true));
+    }
+
+    @Test
+    public void memlockScript() throws IOException, InterruptedException {
+        File out = new File(dir, "out");
+        Process process = new ProcessBuilder("sh", "-c", HdfsProcess.memlockScript(64), "sh", "-c", "ulimit -l; echo ok")
+            .redirectErrorStream(true).redirectOutput(out).start();
+
+        assertEquals(0, process.waitFor());
+        assertEquals("64\nok\n", IO.readFile(out));
+    }
+
+    @Test
+    public void libraryPath() {
+        File dir = new File("/opt/hadoop/lib/native");
+        assertEquals(dir.getAbsolutePath(), HdfsProcess.libraryPath(dir, null));
+        assertEquals(dir.getAbsolutePath(), HdfsProcess.libraryPath(dir, ""));
+        assertEquals(dir.getAbsolutePath() + ":/usr/lib", HdfsProcess.libraryPath(dir, "/usr/lib"));
+    }
+
+    @Test
+    public void jvmOpts() {
+        Node nn = new Node("nn", Node.Type.NAMENODE);
+        nn.reservation = new Node.Reservation(1, 2048, Collections.<String, Integer>emptyMap());
+
+        // 2048 - executor 64 - metaspace 128 - direct 128 - native 204
+        assertEquals("-Xmx1524m -Xms1524m -XX:MaxMetaspaceSize=128m -XX:MaxDirectMemorySize=128m -XX:+UseG1GC -XX:MaxGCPauseMillis=200", HdfsProcess.jvmOpts(nn, 8));
+        assertEquals("-Xmx1524m -Xms1524m -XX:MaxPermSize=128m -XX:MaxDirectMemorySize=128m -XX:+UseG1GC -XX:MaxGCPauseMillis=200", HdfsProcess.jvmOpts(nn, 7));
+
+        // cache mem is off-heap
+        Node dn = new Node("dn", Node.Type.DATANODE);
+        dn.reservation = new Node.Reservation(1, 2560, Collections.<String, Integer>emptyMap());
+        dn.cacheMem = 512;
+        assertEquals("-Xmx1524m -Xms1524m -XX:MaxMetaspaceSize=128m -XX:MaxDirectMemorySize=128m -XX:+UseParallelGC", HdfsProcess.jvmOpts(dn, 8));
+
+        // custom opts override
+        nn.hadoopJvmOpts = "-Xmx1g -XX:+UseConcMarkSweepGC";
+        assertEquals("-Xms1524m -XX:MaxMetaspaceSize=128m -XX:MaxDirectMemorySize=128m -Xmx1g -XX:+UseConcMarkSweepGC", HdfsProcess.jvmOpts(nn, 8));
+    }
+
+    @Test
+    public void javaVersion() {
+        assertTrue(HdfsProcess.javaVersion() >= 7);
+    }
+
+    @Test
+    public void volumeDirs() {
+        for (String name : Arrays.asList("disk1", "disk0", "other")) assertTrue(new File(dir, name).mkdir());
+
+        assertTrue(HdfsProcess.volumeDirs(Collections.<String>emptyList(), "dn").isEmpty());
+
+        // plain & missing
+        Map<File, String> dirs = HdfsProcess.volumeDirs(Arrays.asList(dir + "/other", dir + "/missing"), "dn");
+        assertEquals(Arrays.asList(new File(dir, "other/dn")), new ArrayList<>(dirs.keySet()));
+        assertNull(dirs.get(new File(dir, "other/dn")));
+
+        // pattern with storage type
+        dirs = HdfsProcess.volumeDirs(Arrays.asList("[SSD]" + dir + "/disk*"), "dn");
+        assertEquals(Arrays.asList(new File(dir, "disk0/dn"), new File(dir, "disk1/dn")), new ArrayList<>(dirs.keySet()));
+        assertEquals("SSD", dirs.get(new File(dir, "disk0/dn")));
+    }
+
+    @Test
+    public void formatDataDirs() {
+        Map<File, String> dirs = new LinkedHashMap<>();
+        dirs.put(new File("/disk/dn"), null);
+        dirs.put(new File("/ssd/dn"), "SSD");
+
+        assertEquals("/disk/dn,[SSD]file:///ssd/dn", HdfsProcess.formatDataDirs(dirs, false));
+        assertEquals("/disk/dn,/ssd/dn", HdfsProcess.formatDataDirs(dirs, true));
+    }
+}
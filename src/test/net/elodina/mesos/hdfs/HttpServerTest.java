@@ -1,6 +1,9 @@
 package net.elodina.mesos.hdfs;
 
+import net.elodina.mesos.api.Offer;
 import net.elodina.mesos.util.IO;
+import net.elodina.mesos.util.Net;
+import net.elodina.mesos.util.Period;
 import net.elodina.mesos.util.Request;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONAware;
@@ -13,11 +16,16 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URLEncoder;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 import static junit.framework.Assert.assertEquals;
 import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 public class HttpServerTest extends HdfsMesosTestCase {
@@ -53,6 +61,98 @@ public class HttpServerTest extends HdfsMesosTestCase {
         assertEquals("jar", new String(data));
     }
 
+    @Test
+    public void download_jar_by_hash() throws IOException {
+        Scheduler.Config config = Scheduler.$.config;
+        config.jar = new File(dir, "hdfs-mesos-0.1.jar");
+        IO.writeFile(config.jar, "jar");
+        config.jarHash = Scheduler.Config.sha256(config.jar);
+
+        try {
+            byte[] data = download("/jar/" + config.jarHash + "/hdfs-mesos.jar");
+            assertEquals("jar", new String(data));
+
+            // stale hash
+            Request.Response response = new Request(Cli.api + "/jar/0123/hdfs-mesos.jar").send();
+            assertEquals(404, response.code());
+        } finally {
+            config.jarHash = null;
+        }
+    }
+
+    @Test
+    public void download_separate_connector() throws Exception {
+        Scheduler.Config config = Scheduler.$.config;
+        config.jar = new File(dir, "hdfs-mesos-0.1.jar");
+        IO.writeFile(config.jar, "jar");
+
+        server.stop();
+        config.downloadApi = "http://localhost:" + Net.findAvailPort();
+        try {
+            server.start();
+
+            byte[] data = new Request(config.downloadApi + "/jar/hdfs-mesos.jar").send().body();
+            assertEquals("jar", new String(data));
+
+            // api is still served, but not on download port
+            assertEquals("ok\n", new String(download("/health")));
+            assertEquals(404, new Request(config.downloadApi + "/health").send().code());
+            assertEquals(404, new Request(config.downloadApi + "/api/node/remove?node=*").send().code());
+        } finally {
+            config.downloadApi = null;
+        }
+    }
+
+    @Test
+    public void download_rejected_on_shared_connector() throws Exception {
+        Scheduler.Config config = Scheduler.$.config;
+        config.jar = new File(dir, "hdfs-mesos-0.1.jar");
+        IO.writeFile(config.jar, "jar");
+
+        server.stop();
+        config.maxDownloads = 0;
+        try {
+            server.start();
+
+            long start = System.currentTimeMillis();
+            Request.Response response = new Request(Cli.api + "/jar/hdfs-mesos.jar").send();
+            assertEquals(503, response.code());
+            assertEquals("" + HttpServer.DOWNLOAD_RETRY_AFTER, response.header("Retry-After"));
+            assertTrue(System.currentTimeMillis() - start < server.downloadQueueTimeout.ms());
+        } finally {
+            config.maxDownloads = 8;
+        }
+    }
+
+    @Test
+    public void acquireThrottle_releaseThrottle() {
+        HttpServer.Throttle throttle = server.acquireThrottle("c0", 1);
+        assertSame(throttle, server.acquireThrottle("c0", 1));
+        server.acquireThrottle("c1", 1);
+        assertEquals(2, server.throttles());
+
+        // evicted when last download of client completes
+        server.releaseThrottle("c0");
+        assertEquals(2, server.throttles());
+        server.releaseThrottle("c0");
+        server.releaseThrottle("c1");
+        assertEquals(0, server.throttles());
+    }
+
+    @Test
+    public void Throttle_reserve() {
+        HttpServer.Throttle throttle = new HttpServer.Throttle(1); // 1Kb/s
+        long now = System.nanoTime();
+
+        assertEquals(0, throttle.reserve(1024, now));
+        assertEquals(1000000000L, throttle.reserve(512, now));
+        assertEquals(1000000000L + 500000000L, throttle.reserve(1024, now));
+
+        // idle client starts from now
+        long later = now + 10000000000L;
+        assertEquals(0, throttle.reserve(1024, later));
+    }
+
     @Test
     public void download_hadoop() throws IOException {
         Scheduler.$.config.hadoop = new File(dir, "hadoop-1.2.1.tar.gz");
@@ -68,6 +168,244 @@ public class HttpServerTest extends HdfsMesosTestCase {
         assertEquals("ok\n", new String(response));
     }
 
+    @Test
+    public void handle_metrics() throws IOException {
+        String response = new String(download("/metrics"));
+        assertTrue(response, response.contains("hdfs_mesos_offers_received_total"));
+    }
+
+    @Test
+    public void client_config() throws IOException {
+        Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        Node dn = Nodes.addNode(new Node("dn", Node.Type.DATANODE));
+
+        String response = new String(download("/api/client/hdfs-site.xml"));
+        assertEquals("<configuration>\n</configuration>\n", response);
+
+        dn.socketDir = "/var/run/hdfs-sockets";
+        response = new String(download("/api/client/hdfs-site.xml"));
+        assertTrue(response, response.contains("<name>dfs.client.read.shortcircuit</name>\n  <value>true</value>"));
+        assertTrue(response, response.contains("<value>/var/run/hdfs-sockets/dn._PORT</value>"));
+    }
+
+    @Test
+    public void trace() throws IOException {
+        Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        Nodes.addNode(new Node("dn", Node.Type.DATANODE));
+        request("/node/start?node=nn&timeout=0");
+
+        JSONObject json = request("/trace");
+        assertEquals(2, json.size());
+        assertTrue(((JSONArray) json.get("dn")).isEmpty());
+
+        json = request("/trace?node=nn");
+        assertEquals(1, json.size());
+
+        JSONArray traces = (JSONArray) json.get("nn");
+        assertEquals(1, traces.size());
+
+        JSONObject trace = (JSONObject) traces.get(0);
+        assertEquals("api", trace.get("reason"));
+        JSONObject span = (JSONObject) ((JSONArray) trace.get("spans")).get(0);
+        assertEquals("api.start", span.get("name"));
+
+        // invalid node
+        try { request("/trace?node=a.."); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("invalid node")); }
+    }
+
+    @Test
+    public void node_pending() throws IOException {
+        Nodes.addNode(new Node("dn", Node.Type.DATANODE));
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.STARTING;
+        nn.startTime = new Date();
+
+        Scheduler.$.offers(Arrays.asList(new Offer("id:0, hostname:h0, resources:[cpus:0.1]"), new Offer("id:1, hostname:h1, resources:[cpus:0.1]")));
+
+        JSONArray json = request("/node/pending");
+        assertEquals(1, json.size());
+
+        JSONObject nodeJson = (JSONObject) json.get(0);
+        assertEquals("nn", nodeJson.get("id"));
+        assertNotNull(nodeJson.get("waiting"));
+
+        JSONObject declines = (JSONObject) nodeJson.get("declines");
+        assertEquals(2L, ((JSONObject) declines.get("reasons")).get("cpus"));
+        assertEquals(1L, ((JSONObject) declines.get("agents")).get("h1"));
+
+        // launched node is not pending
+        Scheduler.$.offers(Arrays.asList(new Offer("id:2, resources:[cpus:2;mem:2048;ports:0..10]")));
+        json = request("/node/pending");
+        assertTrue(json.isEmpty());
+        assertNull(Declines.forNode("nn"));
+    }
+
+    @Test
+    public void agents() throws IOException {
+        JSONArray json = request("/agents");
+        assertTrue(json.isEmpty());
+
+        Scheduler.$.offers(Arrays.asList(new Offer("id:0, slaveId:s0, hostname:h0, resources:[cpus:0.1]")));
+        json = request("/agents");
+        assertEquals(1, json.size());
+
+        JSONObject agentJson = (JSONObject) json.get(0);
+        assertEquals("s0", agentJson.get("id"));
+        assertEquals("h0", agentJson.get("hostname"));
+        assertEquals(1L, agentJson.get("offers"));
+    }
+
+    @Test
+    public void node_explain() throws IOException {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        Node dn = Nodes.addNode(new Node("dn", Node.Type.DATANODE));
+        Agents.observe(Arrays.asList(new Offer("slaveId:s0, hostname:h0, resources:[cpus:0.1]"), new Offer("slaveId:s1, hostname:h1, resources:[cpus:2;mem:2048;ports:0..10]")), new Date());
+
+        JSONArray json = request("/node/explain");
+        assertEquals(2, json.size());
+
+        JSONObject nnJson = (JSONObject) json.get(0);
+        assertEquals("nn", nnJson.get("id"));
+        assertEquals(1L, nnJson.get("matching"));
+
+        JSONArray agentsJson = (JSONArray) nnJson.get("agents");
+        assertEquals("ok", ((JSONObject) agentsJson.get(0)).get("verdict"));
+        assertEquals("cpus < 0.5", ((JSONObject) agentsJson.get(1)).get("verdict"));
+        assertEquals("first", nnJson.get("placement"));
+        assertEquals("s1", nnJson.get("best"));
+        assertNull(nnJson.get("blocked"));
+
+        JSONObject dnJson = (JSONObject) json.get(1);
+        assertEquals(0L, dnJson.get("matching"));
+        assertNull(dnJson.get("best"));
+
+        // launch rate exceeded
+        Scheduler.$.config.namenodeLaunchRate = new LaunchLimiter("1/1m");
+        assertTrue(Scheduler.$.config.namenodeLaunchRate.acquire(System.currentTimeMillis()));
+
+        json = request("/node/explain?node=nn");
+        nnJson = (JSONObject) json.get(0);
+        assertEquals("launch rate 1/1m exceeded", nnJson.get("blocked"));
+
+        // nothing launched
+        assertNull(nn.runtime);
+        assertNull(dn.runtime);
+        assertTrue(schedulerDriver.launchedTasks.isEmpty());
+    }
+
+    @Test
+    public void topology() throws IOException {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.initRuntime(new Offer("hostname:master, resources:[ports:0..10], attributes:[rack=r0]"));
+
+        JSONObject json = request("/topology");
+        assertEquals(1, json.size());
+        assertEquals("/r0", json.get("master"));
+    }
+
+    @Test
+    public void mover() throws IOException {
+        JSONObject json = request("/mover");
+        assertEquals("idle", json.get("state"));
+
+        // no namenode
+        try { request("/mover/start"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("no running namenode")); }
+
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.RUNNING;
+
+        json = request("/mover/start?paths=/hot,/warm");
+        assertEquals("requested", json.get("state"));
+        assertEquals("/hot,/warm", json.get("paths"));
+        long id = ((Number) json.get("id")).longValue();
+
+        // single run
+        try { request("/mover/start"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("mover is requested")); }
+
+        // executor reports
+        try { request("/mover/report?id=" + (id + 1) + "&state=running"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("unexpected report")); }
+
+        request("/mover/report?id=" + id + "&state=running");
+        json = request("/mover/report?id=" + id + "&state=finished&message=done");
+        assertEquals("finished", json.get("state"));
+        assertEquals("done", json.get("message"));
+        assertNotNull(json.get("finishTime"));
+
+        // default path, ids grow
+        json = request("/mover/start");
+        assertEquals("/", json.get("paths"));
+        long id2 = ((Number) json.get("id")).longValue();
+        assertTrue(id2 > id);
+
+        // reset
+        json = request("/mover/reset");
+        assertEquals("failed", json.get("state"));
+        assertEquals("reset", json.get("message"));
+
+        try { request("/mover/reset"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("mover is not active")); }
+
+        // late report of reset run
+        try { request("/mover/report?id=" + id2 + "&state=running"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("unexpected report")); }
+
+        // not picked up
+        json = request("/mover/start");
+        Mover.expire(new Date(System.currentTimeMillis() + Mover.PICKUP_TIMEOUT.ms() + 1));
+        assertEquals(Mover.State.FAILED, Mover.state());
+    }
+
+    @Test
+    public void cache() throws IOException {
+        try { request("/cache/pool/add?pool=hot"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("no running namenode")); }
+
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.RUNNING;
+
+        // validation
+        try { request("/cache/pool/add"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("pool required")); }
+
+        try { request("/cache/directive/add?path=t&pool=hot"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("invalid path")); }
+
+        // submit
+        JSONArray json = request("/cache/pool/add?pool=hot&limit=1024");
+        assertEquals(1, json.size());
+        assertEquals(Arrays.asList("-addPool", "hot", "-limit", "1024"), ((JSONObject) json.get(0)).get("args"));
+
+        json = request("/cache/directive/add?path=/tables/t0&pool=hot&replication=2");
+        assertEquals(Arrays.asList("-addDirective", "-path", "/tables/t0", "-pool", "hot", "-replication", "2"), ((JSONObject) json.get(0)).get("args"));
+
+        // executor takes & reports
+        json = request("/cache/take");
+        assertEquals(2, json.size());
+        assertTrue(((JSONArray) request("/cache/take")).isEmpty());
+
+        long id = ((Number) ((JSONObject) json.get(0)).get("id")).longValue();
+        request("/cache/report?id=" + id + "&ok=true&output=Successfully+added+cache+pool+hot.");
+
+        try { request("/cache/report?id=" + id + "&ok=true"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("unexpected report")); }
+
+        // status, most recent first
+        json = request("/cache/status");
+        assertEquals(2, json.size());
+        assertEquals("running", ((JSONObject) json.get(0)).get("state"));
+        assertEquals("finished", ((JSONObject) json.get(1)).get("state"));
+        assertEquals("Successfully added cache pool hot.", ((JSONObject) json.get(1)).get("output"));
+
+        // not reported in time
+        CacheAdmin.expire(new Date(System.currentTimeMillis() + CacheAdmin.RUN_TIMEOUT.ms() + 1));
+        json = request("/cache/status");
+        assertEquals("failed", ((JSONObject) json.get(0)).get("state"));
+    }
+
     @Test
     public void node_list() throws IOException {
         // no nodes
@@ -117,6 +455,47 @@ public class HttpServerTest extends HdfsMesosTestCase {
 
         assertEquals(2048, nn.mem);
         assertEquals(2048, dn.mem);
+
+        // data dir
+        request("/node/update?node=dn&dataDir=/var/lib/hdfs");
+        assertEquals("/var/lib/hdfs", dn.dataDir);
+
+        try { request("/node/update?node=dn&dataDir=data"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("invalid dataDir")); }
+
+        request("/node/update?node=dn&dataDir=");
+        assertNull(dn.dataDir);
+
+        request("/node/update?node=dn&dataWait=1d");
+        assertEquals(new Period("1d"), dn.dataWait);
+
+        try { request("/node/update?node=dn&dataWait=a"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("invalid dataWait")); }
+
+        request("/node/update?node=dn&dataWait=");
+        assertNull(dn.dataWait);
+
+        // volumes
+        request("/node/update?node=*&volumes=/mnt/disk0,/mnt/disk*");
+        assertEquals(Arrays.asList("/mnt/disk0", "/mnt/disk*"), dn.volumes);
+        assertTrue(nn.volumes.isEmpty());
+
+        try { request("/node/update?node=dn&volumes=disk0"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("invalid volumes")); }
+
+        try { request("/node/update?node=dn&volumes=[FLASH]/mnt/disk0"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("unsupported storage type")); }
+
+        // socket dir
+        request("/node/update?node=*&socketDir=/var/run/hdfs-sockets");
+        assertEquals("/var/run/hdfs-sockets", dn.socketDir);
+        assertNull(nn.socketDir);
+
+        try { request("/node/update?node=dn&socketDir=sockets"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("invalid socketDir")); }
+
+        request("/node/update?node=dn&socketDir=");
+        assertNull(dn.socketDir);
     }
 
     @Test
@@ -248,17 +627,90 @@ public class HttpServerTest extends HdfsMesosTestCase {
     @Test
     public void node_remove() throws IOException {
         Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
-        Nodes.addNode(new Node("dn", Node.Type.DATANODE));
+        Node dn = Nodes.addNode(new Node("dn", Node.Type.DATANODE));
+        Trace.begin(dn, "api");
 
         JSONArray json = request("/node/remove?node=dn");
         assertEquals(1, Nodes.getNodes().size());
         assertEquals(Arrays.asList("dn"), json);
+        assertTrue(Trace.forNode("dn").isEmpty());
 
         json = request("/node/remove?node=nn");
         assertTrue(Nodes.getNodes().isEmpty());
         assertEquals(Arrays.asList("nn"), json);
     }
 
+    @Test
+    public void node_batch() throws IOException {
+        Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+
+        String ops = "[{\"op\":\"add\",\"node\":\"dn0..1\",\"type\":\"datanode\",\"cpus\":\"2\"}," +
+            "{\"op\":\"update\",\"node\":\"dn1\",\"mem\":\"2048\"}," +
+            "{\"op\":\"start\",\"node\":\"nn\"}]";
+
+        JSONArray json = request("/node/batch?ops=" + URLEncoder.encode(ops, "utf-8"));
+        assertEquals(3, json.size());
+
+        assertEquals(3, Nodes.getNodes().size());
+        assertEquals(2.0, Nodes.getNode("dn0").cpus);
+        assertEquals(2048, Nodes.getNode("dn1").mem);
+        assertEquals(Node.State.STARTING, Nodes.getNode("nn").state);
+    }
+
+    @Test(timeout = 10000)
+    public void node_batch_schedulerLock() throws Exception {
+        final Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        final String ops = "[{\"op\":\"update\",\"node\":\"nn\",\"mem\":\"2048\"}]";
+
+        Thread thread;
+        synchronized (Scheduler.$) {
+            thread = new Thread() {
+                public void run() {
+                    try { request("/node/batch?ops=" + URLEncoder.encode(ops, "utf-8")); }
+                    catch (IOException e) { throw new IllegalStateException(e); }
+                }
+            };
+            thread.start();
+
+            // batch waits for scheduler callbacks
+            Thread.sleep(200);
+            assertEquals(512, nn.mem);
+        }
+
+        thread.join();
+        assertEquals(2048, nn.mem);
+    }
+
+    @Test
+    public void node_batch_validation() throws IOException {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+
+        // ops required
+        try { request("/node/batch"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("ops required")); }
+
+        // invalid ops
+        try { request("/node/batch?ops=abc"); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("invalid ops")); }
+
+        // nothing applied if any op fails
+        String ops = "[{\"op\":\"update\",\"node\":\"nn\",\"mem\":\"2048\"},{\"op\":\"update\",\"node\":\"nn\",\"cpus\":\"x\"}]";
+        try { request("/node/batch?ops=" + URLEncoder.encode(ops, "utf-8")); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("op 1: invalid cpus")); }
+        assertEquals(512, nn.mem);
+
+        // ops see effects of previous ops
+        ops = "[{\"op\":\"start\",\"node\":\"nn\"},{\"op\":\"update\",\"node\":\"nn\"}]";
+        try { request("/node/batch?ops=" + URLEncoder.encode(ops, "utf-8")); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("op 1: node not idle")); }
+        assertEquals(Node.State.IDLE, nn.state);
+
+        // unsupported op
+        ops = "[{\"op\":\"kill\",\"node\":\"nn\"}]";
+        try { request("/node/batch?ops=" + URLEncoder.encode(ops, "utf-8")); fail(); }
+        catch (IOException e) { assertTrue(e.getMessage(), e.getMessage().contains("unsupported op")); }
+    }
+
     @Test
     public void node_remove_validation() {
         // node required
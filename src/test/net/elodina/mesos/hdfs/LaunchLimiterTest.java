@@ -0,0 +1,41 @@
+package net.elodina.mesos.hdfs;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class LaunchLimiterTest {
+    @Test
+    public void init() {
+        assertEquals("10/1m", "" + new LaunchLimiter("10/1m"));
+
+        for (String s : Arrays.asList("10", "a/1m", "0/1m", "1/a", "1/0s")) {
+            try { new LaunchLimiter(s); fail(s); }
+            catch (IllegalArgumentException ignore) {}
+        }
+    }
+
+    @Test
+    public void acquire() {
+        LaunchLimiter limiter = new LaunchLimiter("2/10s");
+
+        // burst
+        assertTrue(limiter.acquire(0));
+        assertTrue(limiter.acquire(0));
+        assertFalse(limiter.acquire(0));
+        assertEquals(5000, limiter.waitTime(0));
+
+        // refill
+        assertFalse(limiter.acquire(4000));
+        assertEquals(1000, limiter.waitTime(4000));
+        assertTrue(limiter.acquire(5000));
+        assertFalse(limiter.acquire(5000));
+
+        // refill up to burst
+        assertTrue(limiter.acquire(100000));
+        assertTrue(limiter.acquire(100000));
+        assertFalse(limiter.acquire(100000));
+    }
+}
@@ -0,0 +1,97 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.api.Offer;
+import net.elodina.mesos.api.Task;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest extends HdfsMesosTestCase {
+    @Test
+    public void offers() {
+        Metrics.reset();
+
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.STARTING;
+
+        Scheduler.$.offers(Arrays.asList(new Offer("id:0, resources:[cpus:0.1]"), new Offer("id:1, resources:[cpus:2;mem:2048;ports:0..10]")));
+
+        assertEquals(2, Metrics.offersReceived.get());
+        assertEquals(1, Metrics.offersAccepted.get());
+        assertEquals(1, Metrics.offersDeclined.get(Metrics.DeclineReason.NO_MATCH));
+        assertEquals(1, Metrics.offersProcessing.count());
+        assertEquals(1, Metrics.storageSave.count());
+        assertTrue(Metrics.storageSaveBytes.get() > 0);
+    }
+
+    @Test
+    public void status() {
+        Metrics.reset();
+
+        Scheduler.$.status(new Task.Status("id", Task.State.RUNNING));
+        assertEquals(1, Metrics.statusUpdates.get(Task.State.RUNNING));
+        assertEquals(0, Metrics.statusUpdates.get(Task.State.FAILED));
+    }
+
+    @Test
+    public void Histogram_observe() {
+        Metrics.Histogram histogram = new Metrics.Histogram("h", "help");
+        histogram.observe(500000);       // 0.5ms
+        histogram.observe(20000000);     // 20ms
+        histogram.observe(60000000000L); // 60s
+        assertEquals(3, histogram.count());
+
+        String s = render(histogram);
+        assertTrue(s, s.contains("h_bucket{le=\"0.001\"} 1\n"));
+        assertTrue(s, s.contains("h_bucket{le=\"0.05\"} 2\n"));
+        assertTrue(s, s.contains("h_bucket{le=\"10\"} 2\n"));
+        assertTrue(s, s.contains("h_bucket{le=\"+Inf\"} 3\n"));
+        assertTrue(s, s.contains("h_count 3\n"));
+    }
+
+    @Test
+    public void Latencies_percentiles() {
+        Metrics.Latencies latencies = new Metrics.Latencies("l", "help", "type=\"t\"");
+        assertNull(latencies.percentiles(50));
+
+        for (int i = 1; i <= 100; i++) latencies.observe(new Date(0), new Date(i * 1000));
+        assertArrayEquals(new long[]{50000, 90000, 100000}, latencies.percentiles(50, 90, 100));
+
+        JSONObject json = latencies.toJson();
+        assertEquals(100L, json.get("count"));
+        assertEquals(99000L, json.get("p99"));
+
+        String s = render(latencies);
+        assertTrue(s, s.contains("l_bucket{type=\"t\",le=\"60\"} 60\n"));
+        assertTrue(s, s.contains("l_count{type=\"t\"} 100\n"));
+    }
+
+    @Test
+    public void render() {
+        Metrics.reset();
+        Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+
+        StringWriter buffer = new StringWriter();
+        Metrics.render(new PrintWriter(buffer));
+        String s = "" + buffer;
+
+        assertTrue(s, s.contains("# TYPE hdfs_mesos_offers_received_total counter"));
+        assertTrue(s, s.contains("hdfs_mesos_offers_declined_total{reason=\"no_match\"} 0"));
+        assertTrue(s, s.contains("hdfs_mesos_nodes{state=\"idle\"} 1"));
+        assertTrue(s, s.contains("# TYPE hdfs_mesos_offers_processing_seconds histogram"));
+    }
+
+    private static String render(Metrics.Metric metric) {
+        StringWriter buffer = new StringWriter();
+        PrintWriter writer = new PrintWriter(buffer);
+        metric.render(writer);
+        writer.flush();
+        return ("" + buffer).replace("\r\n", "\n");
+    }
+}
@@ -22,6 +22,14 @@ public class NodeTest extends HdfsMesosTestCase {
 
         assertEquals("cpus < 0.5", node.matches(new Offer("resources:[cpus:0.1]")));
         assertEquals("mem < 500", node.matches(new Offer("resources:[cpus:0.5; mem:400]")));
+
+        node.cacheMem = 100;
+        assertEquals("mem < 600", node.matches(new Offer("resources:[cpus:0.5; mem:500]")));
+        node.cacheMem = 0;
+
+        node.disk = 1000;
+        assertEquals("disk < 1000", node.matches(new Offer("resources:[cpus:0.5; mem:500; disk:900]")));
+        assertNull(node.matches(new Offer("resources:[cpus:0.5; mem:500; disk:2000]")));
     }
 
     @Test
@@ -117,6 +125,111 @@ public class NodeTest extends HdfsMesosTestCase {
         assertEquals(null, node.matches(offer1, new Date(node.stickiness.period.ms())));
     }
 
+    @Test
+    public void matches_dataDir() {
+        Node node = Nodes.addNode(new Node("nn"));
+        node.dataDir = "/var/lib/hdfs";
+        String resources = "cpus:" + node.cpus + ";mem:" + node.mem + ";ports:0..10";
+
+        Offer offer0 = new Offer("hostname:host0, resources:[" + resources + "]");
+        Offer offer1 = new Offer("hostname:host1, resources:[" + resources + "]");
+        assertEquals(null, node.matches(offer1, new Date(0)));
+
+        // data dir doesn't expire
+        node.registerStart("host0");
+        node.registerStop(new Date(0), false);
+        assertEquals(null, node.matches(offer0, new Date(node.stickiness.period.ms())));
+        assertEquals("hostname != data dir hostname", node.matches(offer1, new Date(node.stickiness.period.ms())));
+
+        // released by data wait
+        node.dataWait = new Period("1d");
+        assertEquals("hostname != data dir hostname", node.matches(offer1, new Date(node.dataWait.ms() - 1)));
+        assertEquals(null, node.matches(offer1, new Date(node.dataWait.ms())));
+
+        // running node stays pinned
+        node.registerStart("host0");
+        assertTrue(node.isPinned(new Date(node.dataWait.ms())));
+
+        // reset by stickiness hostname
+        node.stickiness.hostname = null;
+        assertEquals(null, node.matches(offer1, new Date(0)));
+    }
+
+    @Test
+    public void volumeStorageType_volumePath() {
+        assertNull(Node.volumeStorageType("/mnt/disk0"));
+        assertEquals("/mnt/disk0", Node.volumePath("/mnt/disk0"));
+
+        assertEquals("SSD", Node.volumeStorageType("[ssd]/mnt/ssd*"));
+        assertEquals("/mnt/ssd*", Node.volumePath("[ssd]/mnt/ssd*"));
+
+        for (String volume : Arrays.asList("[SSD/mnt/ssd", "[FLASH]/mnt/ssd")) {
+            try { Node.volumeStorageType(volume); fail(volume); }
+            catch (IllegalArgumentException ignore) {}
+        }
+    }
+
+    @Test
+    public void queueTime() {
+        Node node = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        Date now = new Date();
+        node.startTime = new Date(now.getTime() - 5000);
+        assertEquals(0, node.queueTime(now));
+
+        node.state = Node.State.STARTING;
+        assertEquals(5000, node.queueTime(now));
+
+        node.initRuntime(new Offer("hostname:nn, resources:[ports:0..10]"));
+        assertEquals(0, node.queueTime(now));
+    }
+
+    @Test
+    public void preferenceScore() {
+        Node node = new Node("nn");
+        Map<String, Collection<String>> otherAttributes = Collections.emptyMap();
+        assertEquals(0, node.preferenceScore(new Offer("hostname:h0"), otherAttributes), 0.001);
+
+        node.preferences.put("rack", new Node.Preference("like:r1@2"));
+        node.preferences.put("hostname", new Node.Preference("like:h1"));
+        assertEquals(3, node.maxPreferenceScore(), 0.001);
+
+        assertEquals(0, node.preferenceScore(new Offer("hostname:h0"), otherAttributes), 0.001);
+        assertEquals(1, node.preferenceScore(new Offer("hostname:h1, attributes:[rack=r0]"), otherAttributes), 0.001);
+        assertEquals(2, node.preferenceScore(new Offer("hostname:h0, attributes:[rack=r1]"), otherAttributes), 0.001);
+        assertEquals(3, node.preferenceScore(new Offer("hostname:h1, attributes:[rack=r1]"), otherAttributes), 0.001);
+    }
+
+    @Test
+    public void isWaitingPreferred() {
+        Node node = new Node("nn");
+        Date now = new Date();
+        node.startTime = now;
+        assertFalse(node.isWaitingPreferred(now));
+
+        node.preferences.put("rack", new Node.Preference("like:r1"));
+        node.preferenceWait = new Period("10s");
+        assertTrue(node.isWaitingPreferred(now));
+        assertTrue(node.isWaitingPreferred(new Date(now.getTime() + 9000)));
+        assertFalse(node.isWaitingPreferred(new Date(now.getTime() + 10000)));
+    }
+
+    @Test
+    public void Preference_init_toString() {
+        Node.Preference preference = new Node.Preference("like:r1");
+        assertEquals(1, preference.weight, 0.001);
+        assertEquals("like:r1", "" + preference);
+
+        preference = new Node.Preference("like:r.*@2.5");
+        assertEquals(2.5, preference.weight, 0.001);
+        assertEquals("like:r.*", "" + preference.constraint);
+        assertEquals("like:r.*@2.5", "" + preference);
+
+        for (String s : Arrays.asList("like:r1@a", "like:r1@0", "unsupported:r1")) {
+            try { new Node.Preference(s); fail(s); }
+            catch (IllegalArgumentException ignore) {}
+        }
+    }
+
     @Test
     public void reserve() {
         Node node = new Node("0");
@@ -136,6 +249,17 @@ public class NodeTest extends HdfsMesosTestCase {
         assertEquals(2, reservation.ports.size());
         assertEquals(new Integer(0), reservation.ports.get(Node.Port.HTTP));
         assertEquals(new Integer(1), reservation.ports.get(Node.Port.IPC));
+        assertEquals(0, reservation.disk);
+
+        // disk
+        node.disk = 1000;
+        reservation = node.reserve(new Offer("resources:[cpus:0.7;mem:1000;disk:5000]"));
+        assertEquals(1000, reservation.disk);
+
+        // cache mem on top of mem
+        node.cacheMem = 200;
+        reservation = node.reserve(new Offer("resources:[cpus:0.7;mem:1000]"));
+        assertEquals(600, reservation.mem);
     }
 
     @Test
@@ -207,6 +331,46 @@ public class NodeTest extends HdfsMesosTestCase {
         assertEquals(nn.externalFsUri, node.runtime.fsUri);
     }
 
+    @Test
+    public void tuning() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.cpus = 1;
+
+        // no datanodes
+        assertEquals(Strings.parseMap("dfs.namenode.handler.count=10"), nn.tuning());
+
+        // 20 * ln(100) = 92, limited by cpus
+        for (int i = 0; i < 100; i++) Nodes.addNode(new Node("dn" + i, Node.Type.DATANODE));
+        assertEquals("40", nn.tuning().get("dfs.namenode.handler.count"));
+
+        nn.cpus = 4;
+        assertEquals(Strings.parseMap("dfs.namenode.handler.count=92"), nn.tuning());
+
+        // reserved cpus take precedence
+        nn.initRuntime(new Offer("resources:[cpus:0.5;ports:0..10]"));
+        assertEquals("20", nn.tuning().get("dfs.namenode.handler.count"));
+        assertEquals(nn.tuning(), nn.runtime.tuning);
+
+        // datanode
+        Node dn = Nodes.getNode("dn0");
+        dn.cpus = 0.5;
+        assertEquals(Strings.parseMap("dfs.datanode.handler.count=10,dfs.datanode.max.transfer.threads=4096"), dn.tuning());
+
+        dn.cpus = 4;
+        assertEquals(Strings.parseMap("dfs.datanode.handler.count=40,dfs.datanode.max.transfer.threads=8192"), dn.tuning());
+
+        dn.cpus = 16;
+        assertEquals(Strings.parseMap("dfs.datanode.handler.count=64,dfs.datanode.max.transfer.threads=16384"), dn.tuning());
+
+        // hdfs-site-opts take precedence
+        dn.hdfsSiteOpts.put("dfs.datanode.handler.count", "5");
+        assertEquals(Strings.parseMap("dfs.datanode.handler.count=5,dfs.datanode.max.transfer.threads=16384"), dn.tuning());
+
+        // runtime keeps effective values
+        dn.initRuntime(new Offer("resources:[cpus:2;ports:0..10]"));
+        assertEquals(Strings.parseMap("dfs.datanode.handler.count=5,dfs.datanode.max.transfer.threads=4096"), dn.runtime.tuning);
+    }
+
     @Test
     public void newTask() {
         Node node = Nodes.addNode(new Node("0"));
@@ -238,14 +402,31 @@ public class NodeTest extends HdfsMesosTestCase {
 
         String uri = command.uris().get(0).value();
         assertTrue(uri, uri.contains(Scheduler.$.config.jar.getName()));
+        assertFalse(command.uris().get(0).cache());
         uri = command.uris().get(1).value();
         assertTrue(uri, uri.contains(Scheduler.$.config.hadoop.getName()));
 
+        // content-addressed uris
+        Scheduler.$.config.jarHash = "abc";
+        try {
+            Command.URI jarUri = node.newExecutor().command().uris().get(0);
+            assertTrue(jarUri.value(), jarUri.value().endsWith("/jar/abc/" + Scheduler.$.config.jar.getName()));
+            assertTrue(jarUri.cache());
+        } finally {
+            Scheduler.$.config.jarHash = null;
+        }
+
         // cmd
         String cmd = command.value();
         assertTrue(cmd, cmd.contains("java"));
         assertTrue(cmd, cmd.contains(node.executorJvmOpts));
         assertTrue(cmd, cmd.contains(Executor.class.getName()));
+
+        // api is passed to namenode for topology updates
+        assertTrue(cmd, cmd.contains("--api=" + Scheduler.$.config.api));
+        node.type = Node.Type.DATANODE;
+        cmd = node.newExecutor().command().value();
+        assertFalse(cmd, cmd.contains("--api="));
     }
 
     @Test
@@ -256,9 +437,13 @@ public class NodeTest extends HdfsMesosTestCase {
 
         node.cpus = 2;
         node.mem = 1024;
+        node.disk = 4096;
+        node.cacheMem = 256;
 
         node.constraints.put("hostname", new Constraint("like:master"));
         node.constraints.put("a", new Constraint("like:1"));
+        node.preferences.put("rack", new Node.Preference("like:r1@2"));
+        node.preferenceWait = new Period("1m");
 
         node.executorJvmOpts = "executor-opts";
         node.executorJvmOpts = "hadoop-opts";
@@ -266,6 +451,10 @@ public class NodeTest extends HdfsMesosTestCase {
         node.hdfsSiteOpts.put("b", "2");
 
         node.externalFsUri = "external-fs-uri";
+        node.dataDir = "/var/lib/hdfs";
+        node.dataWait = new Period("1d");
+        node.volumes = Arrays.asList("/mnt/disk0", "/mnt/disk*");
+        node.socketDir = "/var/run/hdfs-sockets";
 
         node.initRuntime(new Offer());
         node.stickiness.registerStart("hostname");
@@ -278,8 +467,12 @@ public class NodeTest extends HdfsMesosTestCase {
 
         assertEquals(node.cpus, read.cpus, 0.001);
         assertEquals(node.mem, read.mem);
+        assertEquals(node.disk, read.disk);
+        assertEquals(node.cacheMem, read.cacheMem);
 
         assertEquals(node.constraints, read.constraints);
+        assertEquals(Strings.formatMap(node.preferences), Strings.formatMap(read.preferences));
+        assertEquals(node.preferenceWait, read.preferenceWait);
 
         assertEquals(node.executorJvmOpts, read.executorJvmOpts);
         assertEquals(node.hadoopJvmOpts, read.hadoopJvmOpts);
@@ -287,6 +480,10 @@ public class NodeTest extends HdfsMesosTestCase {
         assertEquals(node.hdfsSiteOpts, read.hdfsSiteOpts);
 
         assertEquals(node.externalFsUri, read.externalFsUri);
+        assertEquals(node.dataDir, read.dataDir);
+        assertEquals(node.dataWait, read.dataWait);
+        assertEquals(node.volumes, read.volumes);
+        assertEquals(node.socketDir, read.socketDir);
 
         assertEquals(node.stickiness.hostname, read.stickiness.hostname);
         assertEquals(node.failover.failures, read.failover.failures);
@@ -304,6 +501,9 @@ public class NodeTest extends HdfsMesosTestCase {
 
         runtime.fsUri = "hdfs://localhost:31000";
         runtime.killSent = true;
+        runtime.launchOrder = 2;
+        runtime.tuning.put("dfs.datanode.handler.count", "20");
+        runtime.nativeLib = "/opt/hadoop/lib/native";
 
         Node.Runtime read = new Node.Runtime(runtime.toJson());
         assertEquals(runtime.taskId, read.taskId);
@@ -315,6 +515,9 @@ public class NodeTest extends HdfsMesosTestCase {
 
         assertEquals(runtime.fsUri, read.fsUri);
         assertEquals(runtime.killSent, read.killSent);
+        assertEquals(runtime.launchOrder, read.launchOrder);
+        assertEquals(runtime.tuning, read.tuning);
+        assertEquals(runtime.nativeLib, read.nativeLib);
     }
 
     // Reservation
@@ -323,12 +526,14 @@ public class NodeTest extends HdfsMesosTestCase {
         Node.Reservation reservation = new Node.Reservation();
         reservation.cpus = 0.5;
         reservation.mem = 256;
+        reservation.disk = 1024;
         reservation.ports.put(Node.Port.HTTP, 10);
         reservation.ports.put(Node.Port.IPC, 20);
 
         Node.Reservation read = new Node.Reservation(reservation.toJson());
         assertEquals(reservation.cpus, read.cpus, 0.001);
         assertEquals(reservation.mem, read.mem);
+        assertEquals(reservation.disk, read.disk);
         assertEquals(reservation.ports, read.ports);
     }
 
@@ -336,6 +541,7 @@ public class NodeTest extends HdfsMesosTestCase {
     public void Reservation_toResources() {
         assertEquals(Resource.parse(""), new Node.Reservation().toResources());
         assertEquals(Resource.parse("cpus:0.5;mem:500;ports:1000..1000"), new Node.Reservation(0.5, 500, Collections.singletonMap("ipc", 1000)).toResources());
+        assertEquals(Resource.parse("cpus:0.5;mem:500;disk:1000"), new Node.Reservation(0.5, 500, 1000, Collections.<String, Integer>emptyMap()).toResources());
     }
 
     // Stickiness
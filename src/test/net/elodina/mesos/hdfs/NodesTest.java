@@ -68,6 +68,19 @@ public class NodesTest {
         // range
         assertEquals(Arrays.asList("1", "2", "3"), Nodes.expandExpr("1..3"));
         assertEquals(Arrays.asList("dn1", "dn2", "dn3"), Nodes.expandExpr("dn1..3"));
+
+        // mixed
+        Nodes.addNode(new Node("dn5", Node.Type.DATANODE));
+        Nodes.addNode(new Node("dn51", Node.Type.DATANODE));
+        assertEquals(Arrays.asList("nn", "dn1", "dn2", "dn3", "dn5", "dn51"), Nodes.expandExpr("nn,dn1..3,dn5*"));
+
+        // wildcard is not applied to other parts
+        assertEquals(Arrays.asList("nn", "dn0", "dn1", "dn5", "dn51"), Nodes.expandExpr("nn,dn*"));
+        assertEquals(Arrays.asList("dn5", "dn51"), Nodes.expandExpr("dn5*,dn5"));
+
+        // removed node
+        Nodes.removeNode(Nodes.getNode("dn51"));
+        assertEquals(Arrays.asList("dn5"), Nodes.expandExpr("dn5*"));
     }
 
     @Test
@@ -97,6 +110,28 @@ public class NodesTest {
         Nodes.removeNode(n1);
     }
 
+    @Test
+    public void clientProps() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        Node dn0 = Nodes.addNode(new Node("dn0", Node.Type.DATANODE));
+        Node dn1 = Nodes.addNode(new Node("dn1", Node.Type.DATANODE));
+        assertTrue(Nodes.clientProps().isEmpty());
+
+        nn.runtime = new Node.Runtime();
+        nn.runtime.fsUri = "hdfs://master:31000";
+        dn0.socketDir = "/var/run/hdfs-sockets";
+        assertEquals("{fs.defaultFS=hdfs://master:31000, dfs.client.read.shortcircuit=true, dfs.domain.socket.path=/var/run/hdfs-sockets/dn._PORT}", "" + Nodes.clientProps());
+
+        // external namenode
+        nn.externalFsUri = "hdfs://external:8020";
+        assertEquals("hdfs://external:8020", Nodes.clientProps().get("fs.defaultFS"));
+
+        // different socket dirs
+        dn1.socketDir = "/tmp/sockets";
+        try { Nodes.clientProps(); fail(); }
+        catch (IllegalStateException e) { assertTrue(e.getMessage(), e.getMessage().contains("different domain socket paths")); }
+    }
+
     @Test
     public void toJson_fromJson() {
         Nodes.frameworkId = "id";
@@ -0,0 +1,106 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.api.Offer;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PlacementStrategyTest extends HdfsMesosTestCase {
+    @Test
+    public void parse() {
+        assertEquals("first", "" + PlacementStrategy.parse("first"));
+        assertEquals("spread", "" + PlacementStrategy.parse("spread"));
+        assertEquals("binpack", "" + PlacementStrategy.parse("binpack"));
+        assertEquals("weighted:spread=2.0,binpack=1.0", "" + PlacementStrategy.parse("weighted:spread=2,binpack=1"));
+        assertTrue(PlacementStrategy.parse(PlacementStrategy.Spread.class.getName()) instanceof PlacementStrategy.Spread);
+
+        for (String s : Arrays.asList("unknown", "weighted:", "weighted:spread=a", "java.lang.String")) {
+            try { PlacementStrategy.parse(s); fail(s); }
+            catch (IllegalArgumentException ignore) {}
+        }
+    }
+
+    @Test
+    public void spread() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.initRuntime(new Offer("hostname:nn, resources:[ports:0..10]"));
+
+        Node dn0 = Nodes.addNode(new Node("dn0", Node.Type.DATANODE));
+        dn0.initRuntime(new Offer("hostname:h0, resources:[ports:0..10], attributes:[rack=r0]"));
+        Node dn1 = Nodes.addNode(new Node("dn1", Node.Type.DATANODE));
+
+        PlacementStrategy spread = PlacementStrategy.spread();
+        PlacementStrategy.Context context = new PlacementStrategy.Context(dn1);
+
+        double sameHost = spread.score(dn1, new Offer("hostname:h0, attributes:[rack=r0]"), context);
+        double sameRack = spread.score(dn1, new Offer("hostname:h1, attributes:[rack=r0]"), context);
+        double otherRack = spread.score(dn1, new Offer("hostname:h2, attributes:[rack=r1]"), context);
+
+        assertTrue(sameRack > sameHost);
+        assertTrue(otherRack > sameRack);
+    }
+
+    @Test
+    public void binPack() {
+        Node dn = new Node("dn", Node.Type.DATANODE);
+        dn.cpus = 1;
+        dn.mem = 1024;
+
+        PlacementStrategy binPack = PlacementStrategy.binPack();
+        double small = binPack.score(dn, new Offer("resources:[cpus:1;mem:1024]"), null);
+        double big = binPack.score(dn, new Offer("resources:[cpus:8;mem:16384]"), null);
+        assertTrue(small > big);
+    }
+
+    @Test
+    public void weighted() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.initRuntime(new Offer("hostname:nn, resources:[ports:0..10]"));
+
+        Node dn0 = Nodes.addNode(new Node("dn0", Node.Type.DATANODE));
+        dn0.initRuntime(new Offer("hostname:h0, resources:[ports:0..10], attributes:[rack=r0]"));
+        Node dn1 = Nodes.addNode(new Node("dn1", Node.Type.DATANODE));
+        dn1.cpus = 1;
+        dn1.mem = 1024;
+
+        // spread prefers other rack, binpack prefers small offer
+        Offer small = new Offer("hostname:h1, resources:[cpus:1;mem:1024], attributes:[rack=r0]");
+        Offer big = new Offer("hostname:h2, resources:[cpus:8;mem:16384], attributes:[rack=r1]");
+        PlacementStrategy.Context context = new PlacementStrategy.Context(dn1, Arrays.asList(small, big));
+
+        // raw spread scores (~1000 per rack node) would outweigh binpack despite its weight
+        PlacementStrategy strategy = PlacementStrategy.parse("weighted:spread=1,binpack=10");
+        assertTrue(strategy.score(dn1, small, context) > strategy.score(dn1, big, context));
+
+        strategy = PlacementStrategy.parse("weighted:spread=10,binpack=1");
+        assertTrue(strategy.score(dn1, big, context) > strategy.score(dn1, small, context));
+
+        // normalized to 0..1
+        strategy = PlacementStrategy.parse("weighted:spread=1");
+        assertEquals(0, strategy.score(dn1, small, context), 0.001);
+        assertEquals(1, strategy.score(dn1, big, context), 0.001);
+    }
+
+    @Test
+    public void acceptOffers() {
+        Scheduler.Config config = Scheduler.$.config;
+        config.namenodePlacement = PlacementStrategy.binPack();
+
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.STARTING;
+
+        List<String> reasons = Scheduler.$.acceptOffers(Arrays.asList(
+            new Offer("id:0, hostname:h0, resources:[cpus:0.1]"),
+            new Offer("id:1, hostname:h1, resources:[cpus:8;mem:16384;ports:0..10]"),
+            new Offer("id:2, hostname:h2, resources:[cpus:1;mem:1024;ports:0..10]")
+        ));
+
+        assertEquals("node nn: cpus < 0.5", reasons.get(0));
+        assertEquals("node nn: placed on other offer", reasons.get(1));
+        assertNull(reasons.get(2));
+        assertEquals("h2", nn.runtime.hostname);
+    }
+}
@@ -7,9 +7,12 @@ import net.elodina.mesos.util.Period;
 import net.elodina.mesos.util.Strings;
 import org.junit.Test;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.*;
@@ -95,6 +98,169 @@ public class SchedulerTest extends HdfsMesosTestCase {
         assertEquals(1, schedulerDriver.launchedTasks.size());
     }
 
+    @Test
+    public void acceptOffers_preferences() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.STARTING;
+        nn.startTime = new Date();
+        nn.preferences.put("rack", new Node.Preference("like:r1"));
+
+        Offer r0 = new Offer("id:0, hostname:h0, resources:[cpus:2;mem:2048;ports:0..10], attributes:[rack=r0]");
+        Offer r1 = new Offer("id:1, hostname:h1, resources:[cpus:2;mem:2048;ports:0..10], attributes:[rack=r1]");
+
+        // waiting for preferred
+        assertEquals(Arrays.asList("node nn: waiting for preferred offer"), Scheduler.$.acceptOffers(Arrays.asList(r0)));
+        assertNull(nn.runtime);
+        assertEquals(1, (int) Declines.forNode("nn").byCategory().get("preference"));
+
+        // preferred chosen
+        assertEquals(Arrays.asList("node nn: placed on other offer", null), Scheduler.$.acceptOffers(Arrays.asList(r0, r1)));
+        assertEquals("h1", nn.runtime.hostname);
+
+        // wait expired
+        nn.runtime = null;
+        nn.startTime = new Date(System.currentTimeMillis() - nn.preferenceWait.ms());
+        assertEquals(Arrays.asList((String) null), Scheduler.$.acceptOffers(Arrays.asList(r0)));
+        assertEquals("h0", nn.runtime.hostname);
+    }
+
+    @Test
+    public void startQueue() {
+        long now = System.currentTimeMillis();
+
+        Node dn0 = Nodes.addNode(new Node("dn0", Node.Type.DATANODE));
+        dn0.state = Node.State.STARTING;
+        dn0.startTime = new Date(now - 1000);
+
+        Node dn1 = Nodes.addNode(new Node("dn1", Node.Type.DATANODE));
+        dn1.state = Node.State.STARTING;
+        dn1.startTime = new Date(now - 2000);
+
+        Node dn2 = Nodes.addNode(new Node("dn2", Node.Type.DATANODE));
+        dn2.state = Node.State.STARTING;
+
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.STARTING;
+        nn.startTime = new Date(now);
+
+        Nodes.addNode(new Node("dn3", Node.Type.DATANODE)).state = Node.State.RUNNING;
+
+        // namenode first, then longest queued
+        assertEquals(Arrays.asList(nn, dn1, dn0, dn2), Scheduler.startQueue());
+
+        // launched nodes leave queue
+        nn.initRuntime(new Offer("hostname:nn, resources:[ports:0..10]"));
+        assertEquals(Arrays.asList(dn1, dn0, dn2), Scheduler.startQueue());
+    }
+
+    @Test
+    public void acceptOffers_headOfLine() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.RUNNING;
+        nn.initRuntime(new Offer("hostname:nn, resources:[ports:0..10]"));
+
+        // head of queue doesn't fit offer
+        Node big = Nodes.addNode(new Node("big", Node.Type.DATANODE));
+        big.state = Node.State.STARTING;
+        big.startTime = new Date(System.currentTimeMillis() - 60000);
+        big.cpus = 8;
+
+        Node small = Nodes.addNode(new Node("small", Node.Type.DATANODE));
+        small.state = Node.State.STARTING;
+        small.startTime = new Date();
+
+        List<String> reasons = Scheduler.$.acceptOffers(Arrays.asList(new Offer("resources:[cpus:1;mem:1024;ports:0..10]")));
+        assertEquals(Arrays.asList((String) null), reasons);
+        assertNull(big.runtime);
+        assertNotNull(small.runtime);
+
+        // head of queue picks first, when fits
+        small.runtime = null;
+        small.state = Node.State.STARTING;
+        reasons = Scheduler.$.acceptOffers(Arrays.asList(new Offer("resources:[cpus:8;mem:1024;ports:0..10]")));
+        assertEquals(Arrays.asList((String) null), reasons);
+        assertNotNull(big.runtime);
+        assertNull(small.runtime);
+    }
+
+    @Test
+    public void acceptOffers_launchRate() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.RUNNING;
+        nn.initRuntime(new Offer("hostname:nn, resources:[ports:0..10]"));
+
+        Node dn0 = Nodes.addNode(new Node("dn0", Node.Type.DATANODE));
+        dn0.state = Node.State.STARTING;
+        Node dn1 = Nodes.addNode(new Node("dn1", Node.Type.DATANODE));
+        dn1.state = Node.State.STARTING;
+
+        Scheduler.$.config.datanodeLaunchRate = new LaunchLimiter("1/1m");
+        List<String> reasons = Scheduler.$.acceptOffers(Arrays.asList(
+            new Offer("hostname:h0, resources:[cpus:2;mem:2048;ports:0..10]"),
+            new Offer("hostname:h1, resources:[cpus:2;mem:2048;ports:0..10]")
+        ));
+
+        assertNotNull(dn0.runtime);
+        assertEquals(0, dn0.runtime.launchOrder);
+        assertNull(dn1.runtime);
+
+        assertNull(reasons.get(0));
+        assertEquals("node dn0: placed on other offer, node dn1: launch rate 1/1m exceeded", reasons.get(1));
+        assertEquals(1, (int) Declines.forNode("dn1").byCategory().get("rate"));
+    }
+
+    @Test
+    public void launchOrder() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.initRuntime(new Offer("hostname:nn, resources:[ports:0..10]"));
+
+        Node dn0 = Nodes.addNode(new Node("dn0", Node.Type.DATANODE));
+        Node dn1 = Nodes.addNode(new Node("dn1", Node.Type.DATANODE));
+        Node dn2 = Nodes.addNode(new Node("dn2", Node.Type.DATANODE));
+        assertEquals(0, Scheduler.launchOrder(dn0));
+
+        // starting nodes
+        dn0.state = Node.State.STARTING;
+        dn0.initRuntime(new Offer("hostname:h0, resources:[ports:0..10]"));
+        dn1.state = Node.State.STARTING;
+        dn1.initRuntime(new Offer("hostname:h1, resources:[ports:0..10]"));
+        assertEquals(2, Scheduler.launchOrder(dn2));
+
+        // running nodes
+        dn0.state = Node.State.RUNNING;
+        dn0.runtime.runningTime = new Date();
+        assertEquals(1, Scheduler.launchOrder(dn2));
+
+        // reconciled running node, without running time
+        dn1.state = Node.State.RECONCILING;
+        Scheduler.$.onTaskStatus(new Task.Status(dn1.runtime.taskId, Task.State.RUNNING));
+        assertEquals(Node.State.RUNNING, dn1.state);
+        assertNull(dn1.runtime.runningTime);
+        assertEquals(0, Scheduler.launchOrder(dn2));
+    }
+
+    @Test
+    public void offersSummary() {
+        int[] declined = new int[Metrics.DeclineReason.values().length];
+        String[] samples = new String[declined.length];
+        assertEquals("[offers] received:1, accepted:1, declined:0", Scheduler.offersSummary(1, 1, declined, samples));
+
+        declined[Metrics.DeclineReason.NOTHING_TO_START.ordinal()] = 1;
+        declined[Metrics.DeclineReason.NO_MATCH.ordinal()] = 2;
+        samples[Metrics.DeclineReason.NO_MATCH.ordinal()] = "1a2b: node nn: cpus < 2.0";
+        assertEquals("[offers] received:4, accepted:1, declined:3 {nothing_to_start:1, no_match:2} no_match sample: 1a2b: node nn: cpus < 2.0",
+            Scheduler.offersSummary(4, 1, declined, samples));
+    }
+
+    @Test
+    public void JettyLog4jLogger_format() {
+        assertEquals("", Scheduler.JettyLog4jLogger.format(""));
+        assertEquals("text", Scheduler.JettyLog4jLogger.format("text", 1));
+        assertEquals("a=1, b=2", Scheduler.JettyLog4jLogger.format("a={}, b={}", 1, 2));
+        assertEquals("a=1, b=", Scheduler.JettyLog4jLogger.format("a={}, b={}", 1));
+        assertEquals("{}=null", Scheduler.JettyLog4jLogger.format("{}={}", "{}", null));
+    }
+
     @Test
     public void launchTask() {
         Node node = Nodes.addNode(new Node("nn"));
@@ -108,6 +274,112 @@ public class SchedulerTest extends HdfsMesosTestCase {
         assertNotNull(node.reservation);
     }
 
+    @Test
+    public void lifecycle() {
+        Metrics.reset();
+
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.STARTING;
+        nn.startTime = new Date(System.currentTimeMillis() - 1000);
+
+        Scheduler.$.launchTask(nn, new Offer("resources:[ports:0..10]"));
+        assertNotNull(nn.runtime.launchTime);
+        assertEquals(1, Metrics.lifecycle(Node.Type.NAMENODE, Metrics.Phase.OFFER_WAIT).count());
+
+        Scheduler.$.onTaskStatus(new Task.Status(nn.runtime.taskId, Task.State.STARTING));
+        assertNotNull(nn.runtime.startingTime);
+        assertEquals(1, Metrics.lifecycle(Node.Type.NAMENODE, Metrics.Phase.LAUNCH).count());
+
+        Scheduler.$.onTaskStatus(new Task.Status(nn.runtime.taskId, Task.State.RUNNING));
+        assertNotNull(nn.runtime.runningTime);
+        assertEquals(1, Metrics.lifecycle(Node.Type.NAMENODE, Metrics.Phase.OPERABLE).count());
+        assertEquals(1, Metrics.lifecycle(Node.Type.NAMENODE, Metrics.Phase.TOTAL).count());
+
+        long[] total = Metrics.lifecycle(Node.Type.NAMENODE, Metrics.Phase.TOTAL).percentiles(50);
+        assertTrue("" + total[0], total[0] >= 1000);
+
+        // repeated running (e.g. after reconciliation) is not counted
+        Scheduler.$.onTaskStatus(new Task.Status(nn.runtime.taskId, Task.State.RUNNING));
+        assertEquals(1, Metrics.lifecycle(Node.Type.NAMENODE, Metrics.Phase.TOTAL).count());
+        assertEquals(0, Metrics.lifecycle(Node.Type.DATANODE, Metrics.Phase.TOTAL).count());
+    }
+
+    @Test
+    public void onTaskStopped_failsMover() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.STARTING;
+        Scheduler.$.launchTask(nn, new Offer("resources:[ports:0..10]"));
+        Scheduler.$.onTaskStatus(new Task.Status(nn.runtime.taskId, Task.State.RUNNING));
+
+        long id = Mover.request(Arrays.asList("/"));
+        assertTrue(Mover.report(id, Mover.State.RUNNING, null));
+
+        Scheduler.$.onTaskStatus(new Task.Status(nn.runtime.taskId, Task.State.FAILED));
+        assertEquals(Mover.State.FAILED, Mover.state());
+        assertEquals("namenode task failed", Mover.toJson().get("message"));
+
+        // late report is ignored, new run is accepted
+        assertFalse(Mover.report(id, Mover.State.FINISHED, null));
+        assertTrue(Mover.request(Arrays.asList("/")) > id);
+    }
+
+    @Test
+    public void onTaskStopped_failsCacheCommands() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.STARTING;
+        Scheduler.$.launchTask(nn, new Offer("resources:[ports:0..10]"));
+
+        CacheAdmin.Command running = CacheAdmin.submit(Arrays.asList("-listPools"));
+        CacheAdmin.take();
+        CacheAdmin.Command pending = CacheAdmin.submit(Arrays.asList("-listDirectives"));
+
+        Scheduler.$.onTaskStatus(new Task.Status(nn.runtime.taskId, Task.State.LOST));
+        assertEquals(CacheAdmin.State.FAILED, running.state());
+        assertEquals("namenode task lost", running.output());
+        assertEquals(CacheAdmin.State.PENDING, pending.state());
+        assertTrue(pending.id > running.id);
+    }
+
+    @Test
+    public void onTaskStarting_nativeLib() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.STARTING;
+        Scheduler.$.launchTask(nn, new Offer("resources:[ports:0..10]"));
+        assertNull(nn.runtime.nativeLib);
+
+        Scheduler.$.onTaskStatus(new Task.Status(nn.runtime.taskId, Task.State.STARTING).message(Executor.formatNativeLib(new File("/opt/hadoop/lib/native"))));
+        assertEquals("/opt/hadoop/lib/native", nn.runtime.nativeLib);
+
+        // not found
+        Scheduler.$.launchTask(nn, new Offer("resources:[ports:0..10]"));
+        Scheduler.$.onTaskStatus(new Task.Status(nn.runtime.taskId, Task.State.STARTING).message(Executor.formatNativeLib(null)));
+        assertEquals("", nn.runtime.nativeLib);
+    }
+
+    @Test
+    public void topology() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.initRuntime(new Offer("hostname:nn, resources:[ports:0..10], attributes:[rack=r0]"));
+
+        Node dn0 = Nodes.addNode(new Node("dn0", Node.Type.DATANODE));
+        dn0.initRuntime(new Offer("hostname:dn0, resources:[ports:0..10], attributes:[rack=/dc/r1]"));
+
+        Node dn1 = Nodes.addNode(new Node("dn1", Node.Type.DATANODE));
+        dn1.initRuntime(new Offer("hostname:dn1, resources:[ports:0..10], attributes:[zone=z1]"));
+
+        Nodes.addNode(new Node("dn2", Node.Type.DATANODE));
+
+        Map<String, String> topology = Scheduler.$.topology();
+        assertEquals(2, topology.size());
+        assertEquals("/r0", topology.get("nn"));
+        assertEquals("/dc/r1", topology.get("dn0"));
+
+        // custom attribute
+        Scheduler.$.config.rackAttribute = "zone";
+        try { assertEquals(Collections.singletonMap("dn1", "/z1"), Scheduler.$.topology()); }
+        finally { Scheduler.$.config.rackAttribute = "rack"; }
+    }
+
     @Test
     public void otherAttributes() {
         Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
@@ -0,0 +1,109 @@
+package net.elodina.mesos.hdfs;
+
+import net.elodina.mesos.api.Offer;
+import net.elodina.mesos.api.Task;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TraceTest extends HdfsMesosTestCase {
+    @Test
+    public void begin() {
+        Node nn = new Node("nn", Node.Type.NAMENODE);
+        assertNull(Trace.current(nn));
+
+        // no trace
+        Trace.add(nn, new Trace.Span("a", 0, 0, null));
+        assertTrue(Trace.forNode("nn").isEmpty());
+
+        Trace trace = Trace.begin(nn, "api");
+        Trace.add(nn, new Trace.Span("a", 0, 0, null));
+        assertSame(trace, Trace.current(nn));
+        assertEquals(1, trace.getSpans().size());
+
+        // last traces are kept
+        for (int i = 0; i < Trace.MAX_TRACES; i++) Trace.begin(nn, "failover");
+        List<Trace> traces = Trace.forNode("nn");
+        assertEquals(Trace.MAX_TRACES, traces.size());
+        assertFalse(traces.contains(trace));
+    }
+
+    @Test
+    public void add() {
+        Trace trace = new Trace("api", new Date(0));
+        trace.add(new Trace.Span("start", 0, 0, null));
+        for (int i = 0; i < Trace.MAX_OFFER_SPANS + 2; i++) trace.add(new Trace.Span(Trace.OFFER, i + 1, 0, "o" + i));
+        trace.add(new Trace.Span("launch", 1000, 0, null));
+
+        // oldest offers are dropped, other spans are kept
+        List<Trace.Span> spans = trace.getSpans();
+        assertEquals(Trace.MAX_OFFER_SPANS + 2, spans.size());
+        assertEquals("start", spans.get(0).name);
+        assertEquals("o2", spans.get(1).note);
+        assertEquals("launch", spans.get(spans.size() - 1).name);
+        assertEquals(2, trace.droppedOffers());
+
+        JSONObject json = trace.toJson();
+        assertEquals(2, ((Number) json.get("droppedOffers")).intValue());
+        assertEquals(Trace.MAX_OFFER_SPANS + 2, ((JSONArray) json.get("spans")).size());
+    }
+
+    @Test
+    public void remove() {
+        Node nn = new Node("nn", Node.Type.NAMENODE);
+        Trace.begin(nn, "api");
+        assertEquals(1, Trace.forNode("nn").size());
+
+        Trace.remove("nn");
+        assertTrue(Trace.forNode("nn").isEmpty());
+        assertNull(Trace.current(nn));
+    }
+
+    @Test
+    public void formatSpans_parseSpans() {
+        List<Trace.Span> spans = Arrays.asList(new Trace.Span("a", 1000, 10, "note"), new Trace.Span("b", 2000, 0, null));
+
+        List<Trace.Span> read = Trace.parseSpans(Trace.formatSpans(spans));
+        assertEquals(2, read.size());
+        assertEquals("a 10ms (note)", "" + read.get(0));
+        assertEquals(1000, read.get(0).time);
+        assertEquals("b 0ms", "" + read.get(1));
+
+        try { Trace.parseSpans("abc"); fail(); }
+        catch (IllegalArgumentException ignore) {}
+    }
+
+    @Test
+    public void schedulerSpans() {
+        Node nn = Nodes.addNode(new Node("nn", Node.Type.NAMENODE));
+        nn.state = Node.State.STARTING;
+        Trace trace = Trace.begin(nn, "api");
+
+        // rejected & accepted offers
+        Scheduler.$.offers(Arrays.asList(new Offer("id:0, hostname:h0, resources:[cpus:0.1]")));
+        Scheduler.$.offers(Arrays.asList(new Offer("id:1, hostname:h1, resources:[cpus:2;mem:2048;ports:0..10]")));
+        List<Trace.Span> spans = trace.getSpans();
+        assertEquals("offer", spans.get(0).name);
+        assertTrue(spans.get(0).note, spans.get(0).note.contains("(h0): cpus"));
+        assertEquals("launch", spans.get(1).name);
+
+        // executor spans in status data
+        String data = Trace.formatSpans(Arrays.asList(new Trace.Span("executor.format", 1000, 5000, null)));
+        Scheduler.$.onTaskStatus(new Task.Status(nn.runtime.taskId, Task.State.STARTING).data(data.getBytes()));
+
+        spans = trace.getSpans();
+        assertEquals("status 0ms (starting)", "" + spans.get(2));
+        assertEquals("executor.format 5000ms", "" + spans.get(3));
+
+        // failover starts new trace
+        Scheduler.$.onTaskStatus(new Task.Status(nn.runtime.taskId, Task.State.FAILED));
+        assertNotSame(trace, Trace.current(nn));
+        assertEquals("failover", Trace.current(nn).reason);
+    }
+}